@@ -0,0 +1,89 @@
+package com.eyeshare.Dag.benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+
+/**
+ * <p>The generated source and template files shared by all benchmarks of a trial.</p>
+ * <p>The files live in a temporary folder that is also used as {@code user.home} of the forked benchmark JVM, so the
+ * template is found under {@code .excelreformatter/templates} like an installed one and the real user folder is not touched.</p>
+ */
+@State(Scope.Benchmark)
+public class BenchmarkFiles {
+    public static final String TEMPLATE_PATH = "templates/benchmark-template.xlsx";
+    public static final int TEMPLATE_SHEETS = 4;
+    public static final int TEMPLATE_FORMATTED_ROWS = 501;
+
+    @Param({"10000"})
+    public int rows;
+
+    @Param({"20"})
+    public int columns;
+
+    @Param({SyntheticWorkbook.DEFAULT_MIX})
+    public String cellTypeMix;
+
+    @Param({"20"})
+    public int styles;
+
+    private Path folder;
+    private Path source;
+    private Path template;
+
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        folder = Files.createTempDirectory("excelreformatter-benchmark");
+        System.setProperty("user.home", folder.toString());
+
+        template = folder.resolve(".excelreformatter").resolve(TEMPLATE_PATH);
+        Files.createDirectories(template.getParent());
+        SyntheticWorkbook.writeTemplate(template, TEMPLATE_SHEETS, columns, TEMPLATE_FORMATTED_ROWS);
+
+        source = folder.resolve("source.xlsx");
+        new SyntheticWorkbook(1, rows, columns, cellTypeMix, styles, 42L).write(source);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Get the path of the generated source workbook
+     * @return String
+     */
+    public String getSource() {
+        return source.toString();
+    }
+
+    /**
+     * Get the absolute path of the generated template file
+     * @return Path
+     */
+    public Path getTemplate() {
+        return template;
+    }
+
+    /**
+     * Get a new file in the benchmark folder that output workbooks can be saved to
+     * @return String
+     * @throws IOException if the file cannot be created
+     */
+    public String newOutputFile() throws IOException {
+        return Files.createTempFile(folder, "output", ".xlsx").toString();
+    }
+}
@@ -0,0 +1,129 @@
+package com.eyeshare.Dag.benchmarks;
+
+import com.eyeshare.Dag.functionality.ExcelHandler;
+import com.eyeshare.Dag.profiles.CompiledOperation;
+import com.eyeshare.Dag.profiles.ReadMode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * <p>Benchmarks of the single {@link ExcelHandler} operations.</p>
+ * <p>Opening the source and template happens in the per-invocation setup and saving in the teardown, so only the operation
+ * itself is measured. Cell copying is covered by every benchmark through the {@link CopiedCells} counter.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class OperationBenchmarks {
+    // Columns copied by the fused benchmark, like the ten COPY_COLUMN operations of a typical profile
+    private static final int FUSED_COLUMNS = 10;
+
+
+    @State(Scope.Thread)
+    public static class OpenHandler {
+        @Param({"DOM", "STREAMING"})
+        public ReadMode readMode;
+
+        ExcelHandler handler;
+        private BenchmarkFiles files;
+
+        @Setup(Level.Invocation)
+        public void open(BenchmarkFiles files) throws IOException {
+            this.files = files;
+            handler = new ExcelHandler(files.getSource(), BenchmarkFiles.TEMPLATE_PATH, readMode, 0);
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() throws IOException {
+            handler.saveOutputWorkbook(files.newOutputFile());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class FilledHandler {
+        @Param({"0", "100"})
+        public int outputRowWindow;
+
+        ExcelHandler handler;
+        String outputFile;
+
+        @Setup(Level.Invocation)
+        public void open(BenchmarkFiles files) throws IOException {
+            handler = new ExcelHandler(files.getSource(), BenchmarkFiles.TEMPLATE_PATH, ReadMode.DOM, outputRowWindow);
+            handler.copyColumns(0, fusedColumns(files.columns), 0, fusedColumns(files.columns), CompiledOperation.CopyColumn.START_ROW);
+            outputFile = files.newOutputFile();
+        }
+    }
+
+
+    @Benchmark
+    public ExcelHandler copyColumn(OpenHandler state, CopiedCells counter) {
+        state.handler.copyColumn(0, 1, 0, 1, CompiledOperation.CopyColumn.START_ROW);
+        counter.cells += state.handler.getCellsCopied();
+        return state.handler;
+    }
+
+    @Benchmark
+    public ExcelHandler copyColumnsFused(OpenHandler state, CopiedCells counter, BenchmarkFiles files) {
+        int[] columns = fusedColumns(files.columns);
+        state.handler.copyColumns(0, columns, 0, columns, CompiledOperation.CopyColumn.START_ROW);
+        counter.cells += state.handler.getCellsCopied();
+        return state.handler;
+    }
+
+    @Benchmark
+    public ExcelHandler copyRows(OpenHandler state, CopiedCells counter, BenchmarkFiles files) {
+        state.handler.copyRows(0, 1, 0, files.rows);
+        counter.cells += state.handler.getCellsCopied();
+        return state.handler;
+    }
+
+    @Benchmark
+    public ExcelHandler copySplitRow(OpenHandler state, CopiedCells counter) {
+        // Columns 2 and 3 both go to destination column 2, so every source row becomes two target rows
+        Map<Integer, Integer> colMap = new HashMap<>();
+        colMap.put(0, 0);
+        colMap.put(1, 1);
+        colMap.put(2, 2);
+        colMap.put(3, 2);
+        state.handler.copySplitRow(new CompiledOperation.CopySplitRow(0, 3, 1, colMap, true, 3));
+        counter.cells += state.handler.getCellsCopied();
+        return state.handler;
+    }
+
+    @Benchmark
+    public void saveOutputWorkbook(FilledHandler state, CopiedCells counter) throws IOException {
+        counter.cells += state.handler.getCellsCopied();
+        state.handler.saveOutputWorkbook(state.outputFile);
+    }
+
+
+    //Helper methods
+    static int[] fusedColumns(int columns) {
+        int[] fused = new int[Math.min(FUSED_COLUMNS, columns)];
+        for (int i = 0; i < fused.length; i++) {
+            fused[i] = i;
+        }
+        return fused;
+    }
+}
@@ -0,0 +1,110 @@
+package com.eyeshare.Dag.benchmarks;
+
+import com.eyeshare.Dag.functionality.ExcelReformatter;
+import com.eyeshare.Dag.functionality.TemplateCache;
+import com.eyeshare.Dag.profiles.OpType;
+import com.eyeshare.Dag.profiles.Operation;
+import com.eyeshare.Dag.profiles.Profile;
+import com.eyeshare.Dag.profiles.ReadMode;
+
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * <p>End-to-end benchmarks: applying a whole profile to a file, and loading the output template.</p>
+ * <p>The profile mirrors the bundled ones: ten COPY_COLUMN operations into the first sheet and a COPY_SPLIT_ROW into the fourth.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ProfileBenchmarks {
+
+    @State(Scope.Benchmark)
+    public static class BenchmarkProfile {
+        @Param({"DOM", "STREAMING"})
+        public ReadMode readMode;
+
+        @Param({"0", "100"})
+        public int outputRowWindow;
+
+        Profile profile;
+
+        @Setup(Level.Trial)
+        public void create(BenchmarkFiles files) {
+            profile = new Profile("benchmark");
+            profile.setTemplatePath(BenchmarkFiles.TEMPLATE_PATH);
+            profile.setReadMode(readMode);
+            profile.setOutputRowWindow(outputRowWindow);
+            for (int col : OperationBenchmarks.fusedColumns(files.columns)) {
+                // Indexes are stored as doubles, like in the profiles written by the GUI
+                Map<String, Object> parameters = new HashMap<>();
+                parameters.put("srcSheet", 0.0);
+                parameters.put("srcCol", (double) col);
+                parameters.put("dstSheet", 0.0);
+                parameters.put("dstCol", (double) col);
+                profile.addOperation(new Operation<>(OpType.COPY_COLUMN, parameters));
+            }
+            Map<Double, Double> colMap = new HashMap<>();
+            colMap.put(0.0, 0.0);
+            colMap.put(1.0, 1.0);
+            colMap.put(2.0, 2.0);
+            colMap.put(3.0, 2.0);
+            Map<String, Object> parameters = new HashMap<>();
+            parameters.put("srcSheet", 0.0);
+            parameters.put("dstSheet", 3.0);
+            parameters.put("startRow", 1.0);
+            parameters.put("colMap", colMap);
+            parameters.put("includeHeaders", true);
+            parameters.put("headerCol", 3.0);
+            profile.addOperation(new Operation<>(OpType.COPY_SPLIT_ROW, parameters));
+        }
+    }
+
+
+    @Benchmark
+    public ExcelReformatter applyProfile(BenchmarkProfile state, BenchmarkFiles files, CopiedCells counter) throws IOException {
+        ExcelReformatter reformatter = new ExcelReformatter(files.getSource(), state.profile);
+        reformatter.applyProfile();
+        reformatter.saveOutputWorkbook(files.newOutputFile());
+        counter.cells += reformatter.getCellsCopied();
+        return reformatter;
+    }
+
+    @Benchmark
+    public Workbook loadTemplateCached(BenchmarkFiles files) throws IOException {
+        Workbook workbook = TemplateCache.getInstance().newWorkbook(files.getTemplate());
+        workbook.close();
+        return workbook;
+    }
+
+    @Benchmark
+    public Workbook loadTemplateFromDisk(BenchmarkFiles files) throws IOException {
+        try (InputStream in = Files.newInputStream(files.getTemplate())) {
+            Workbook workbook = WorkbookFactory.create(in);
+            workbook.close();
+            return workbook;
+        }
+    }
+}
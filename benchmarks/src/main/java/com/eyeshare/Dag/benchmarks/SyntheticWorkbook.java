@@ -0,0 +1,218 @@
+package com.eyeshare.Dag.benchmarks;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.FillPatternType;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Random;
+
+
+/**
+ * <p>Deterministic generator of source and template workbooks for the benchmarks.</p>
+ * <p>The same arguments and seed always produce the same cells, so results of different runs and commits are comparable.
+ * The cell type mix is given as weights, e.g. {@code numeric:50,string:30,date:10,formula:5,blank:5}.</p>
+ */
+public class SyntheticWorkbook {
+    public static final String DEFAULT_MIX = "numeric:50,string:30,date:10,formula:5,blank:5";
+
+    private static final int NUMERIC = 0;
+    private static final int STRING = 1;
+    private static final int DATE = 2;
+    private static final int FORMULA = 3;
+    private static final int BLANK = 4;
+    private static final String[] TYPE_NAMES = {"numeric", "string", "date", "formula", "blank"};
+
+    private final int sheets;
+    private final int rows;
+    private final int columns;
+    private final int styles;
+    private final int[] cumulativeWeights;
+    private final long seed;
+
+
+    /**
+     * Constructor for a new SyntheticWorkbook object.
+     * @param sheets Number of sheets, every sheet gets the same shape.
+     * @param rows Number of data rows per sheet, below one header row.
+     * @param columns Number of columns per row.
+     * @param cellTypeMix Weights of the cell types, see {@link #DEFAULT_MIX}.
+     * @param styles Number of distinct cell styles used by the data cells.
+     * @param seed Seed of the random generator.
+     */
+    public SyntheticWorkbook(int sheets, int rows, int columns, String cellTypeMix, int styles, long seed) {
+        this.sheets = sheets;
+        this.rows = rows;
+        this.columns = columns;
+        this.styles = Math.max(1, styles);
+        this.cumulativeWeights = parseMix(cellTypeMix);
+        this.seed = seed;
+    }
+
+    /**
+     * Writes the source workbook to the given file
+     * @param file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path file) throws IOException {
+        Random random = new Random(seed);
+        // Rows are written in order, so only a small window has to be kept in memory
+        SXSSFWorkbook workbook = new SXSSFWorkbook(100);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            CellStyle[] valueStyles = createStyles(workbook, "0.00");
+            CellStyle[] dateStyles = createStyles(workbook, "yyyy-mm-dd");
+            Calendar calendar = new GregorianCalendar(2020, Calendar.JANUARY, 1);
+
+            for (int s = 0; s < sheets; s++) {
+                Sheet sheet = workbook.createSheet("Data " + (s + 1));
+                writeHeader(sheet);
+                for (int r = 1; r <= rows; r++) {
+                    Row row = sheet.createRow(r);
+                    for (int c = 0; c < columns; c++) {
+                        int type = nextType(random);
+                        if (type == BLANK) {
+                            continue;
+                        }
+                        Cell cell = row.createCell(c);
+                        int style = random.nextInt(styles);
+                        switch (type) {
+                            case NUMERIC:
+                                cell.setCellValue(Math.round(random.nextDouble() * 1_000_000) / 100.0);
+                                cell.setCellStyle(valueStyles[style]);
+                                break;
+                            case STRING:
+                                // A limited vocabulary, like the codes and names of real exports
+                                cell.setCellValue("Item " + random.nextInt(1000));
+                                cell.setCellStyle(valueStyles[style]);
+                                break;
+                            case DATE:
+                                calendar.set(2020, Calendar.JANUARY, 1 + random.nextInt(1500));
+                                cell.setCellValue(new Date(calendar.getTimeInMillis()));
+                                cell.setCellStyle(dateStyles[style]);
+                                break;
+                            case FORMULA:
+                                cell.setCellFormula("ROW()*" + (c + 1));
+                                cell.setCellStyle(valueStyles[style]);
+                                break;
+                        }
+                    }
+                }
+            }
+            workbook.write(out);
+        } finally {
+            workbook.dispose();
+            workbook.close();
+        }
+    }
+
+    /**
+     * Writes a template workbook with the given number of sheets to the given file.
+     * Like the bundled templates, every sheet has a header row and a block of pre-formatted empty rows.
+     * @param file
+     * @param sheets
+     * @param columns
+     * @param formattedRows Number of pre-formatted rows per sheet, including the header row.
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeTemplate(Path file, int sheets, int columns, int formattedRows) throws IOException {
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = Files.newOutputStream(file)) {
+            CellStyle headerStyle = workbook.createCellStyle();
+            Font bold = workbook.createFont();
+            bold.setBold(true);
+            headerStyle.setFont(bold);
+            CellStyle bodyStyle = workbook.createCellStyle();
+            bodyStyle.setDataFormat(workbook.createDataFormat().getFormat("@"));
+
+            for (int s = 0; s < sheets; s++) {
+                Sheet sheet = workbook.createSheet("Output " + (s + 1));
+                for (int r = 0; r < formattedRows; r++) {
+                    Row row = sheet.createRow(r);
+                    for (int c = 0; c < columns; c++) {
+                        Cell cell = row.createCell(c);
+                        if (r == 0) {
+                            cell.setCellValue("Field " + (c + 1));
+                            cell.setCellStyle(headerStyle);
+                        } else {
+                            cell.setCellStyle(bodyStyle);
+                        }
+                    }
+                }
+            }
+            workbook.write(out);
+        }
+    }
+
+
+    //Helper methods
+    private void writeHeader(Sheet sheet) {
+        Row header = sheet.createRow(0);
+        for (int c = 0; c < columns; c++) {
+            header.createCell(c).setCellValue("Column " + (c + 1));
+        }
+    }
+
+    private CellStyle[] createStyles(Workbook workbook, String format) {
+        IndexedColors[] colors = IndexedColors.values();
+        short dataFormat = workbook.createDataFormat().getFormat(format);
+        CellStyle[] cellStyles = new CellStyle[styles];
+        for (int i = 0; i < styles; i++) {
+            CellStyle style = workbook.createCellStyle();
+            style.setDataFormat(dataFormat);
+            style.setFillForegroundColor(colors[i % colors.length].getIndex());
+            style.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+            style.setWrapText(i % 2 == 1);
+            cellStyles[i] = style;
+        }
+        return cellStyles;
+    }
+
+    private int nextType(Random random) {
+        int value = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int type = 0; type < cumulativeWeights.length; type++) {
+            if (value < cumulativeWeights[type]) {
+                return type;
+            }
+        }
+        return BLANK;
+    }
+
+    private static int[] parseMix(String cellTypeMix) {
+        int[] weights = new int[TYPE_NAMES.length];
+        for (String part : cellTypeMix.split(",")) {
+            String[] entry = part.trim().split(":");
+            int type = -1;
+            for (int t = 0; t < TYPE_NAMES.length; t++) {
+                if (TYPE_NAMES[t].equalsIgnoreCase(entry[0].trim())) {
+                    type = t;
+                }
+            }
+            if (type < 0 || entry.length != 2) {
+                throw new IllegalArgumentException("Invalid cell type mix: " + cellTypeMix);
+            }
+            weights[type] = Integer.parseInt(entry[1].trim());
+        }
+        int[] cumulative = new int[weights.length];
+        int total = 0;
+        for (int t = 0; t < weights.length; t++) {
+            total += weights[t];
+            cumulative[t] = total;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("Invalid cell type mix: " + cellTypeMix);
+        }
+        return cumulative;
+    }
+}
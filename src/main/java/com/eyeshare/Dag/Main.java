@@ -4,14 +4,23 @@ import java.io.IOException;
 
 import javax.swing.SwingUtilities;
 
+import com.eyeshare.Dag.cli.CommandLineRunner;
 import com.eyeshare.Dag.profiles.ProfileManager;
 import com.eyeshare.Dag.utils.ResourcesExtractor;
 import com.eyeshare.Dag.view.MainFrame;
 
 public class Main {
     public static void main(String[] args) {
+        // With arguments the application runs as a headless batch job and never initializes AWT or Swing
+        if (CommandLineRunner.isCommandLine(args)) {
+            System.setProperty("java.awt.headless", "true");
+            System.exit(CommandLineRunner.run(args));
+        }
 
+        startGui();
+    }
 
+    private static void startGui() {
         ResourcesExtractor extractor = null;
         try {
             extractor = new ResourcesExtractor(false);
@@ -20,12 +29,12 @@ public class Main {
             System.err.println("Failed to extract resources: " + e.getMessage());
             e.printStackTrace();
             System.exit(1);
-        } finally { 
+        } finally {
             if (extractor != null && extractor.createLog != false) {
                 extractor.close();
             }
         }
-        
+
 
         ProfileManager profileManager = new ProfileManager();
 
@@ -34,4 +43,4 @@ public class Main {
             mainFrame.setVisible(true);
         });
     }
-}
\ No newline at end of file
+}
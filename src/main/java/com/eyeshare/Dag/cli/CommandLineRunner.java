@@ -0,0 +1,507 @@
+package com.eyeshare.Dag.cli;
+
+import com.eyeshare.Dag.functionality.BatchExecutor;
+import com.eyeshare.Dag.functionality.BatchExecutor.FileResult;
+import com.eyeshare.Dag.functionality.JobScheduler;
+import com.eyeshare.Dag.functionality.SharedFolderQueue;
+import com.eyeshare.Dag.profiles.CompressionLevel;
+import com.eyeshare.Dag.profiles.Profile;
+import com.eyeshare.Dag.profiles.ProfileManager;
+import com.eyeshare.Dag.utils.ResourcesExtractor;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+
+/**
+ * <p>Headless batch mode, used when the application is started with arguments.</p>
+ * <p>Nothing in here touches AWT or Swing. The debug output of the reformatter goes to stderr, and stdout only gets a single
+ * JSON summary of the run so the result can be consumed by scripts on conversion servers.</p>
+ */
+public class CommandLineRunner {
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_FAILED_FILES = 1;
+    public static final int EXIT_USAGE = 2;
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: excelreformatter --profile <name|profile.json> --output <dir> [--threads <n>] [--compression <level>] [--incremental]",
+            "                       [--memory-budget <mb>] [--stage-threads <read>,<transform>,<write>] [--restart]",
+            "                       [--distributed [--lease-seconds <n>]] <input>...",
+            "       excelreformatter --profile <name|profile.json> --output <dir> [--threads <n>] [--compression <level>] [--memory-budget <mb>]",
+            "                       --watch <inbox>",
+            "       excelreformatter [--threads <n>] [--memory-budget <mb>] --serve <port>",
+            "  --profile, -p   Name of an installed profile or path to a profile JSON file",
+            "  --output, -o    Folder the reformatted files are written to",
+            "  --threads, -t   Number of worker threads (default: number of processors)",
+            "  --memory-budget Megabytes of heap the files processed at the same time may use together, bigger files",
+            "                  wait or are streamed (default: three quarters of the maximum heap)",
+            "  --stage-threads Threads of the read, transform and write stages of a batch, the summary reports how busy",
+            "                  each stage was (default: half the threads, the threads, half the threads)",
+            "  --compression   Compression of the output files: fast, default or max (default: the profile's setting)",
+            "  --incremental   Skip inputs whose output from an earlier run is still valid, tracked in the output folder",
+            "  --restart       Make every output again instead of resuming an interrupted run of the same batch",
+            "  --distributed   Split the batch with the other instances running it on the same output folder, coordinated",
+            "                  through lease files in the folder. Each instance returns once the whole batch is done",
+            "  --lease-seconds Seconds without a heartbeat after which another instance takes over a file (default: 60)",
+            "  --watch         Keep running and reformat every Excel file dropped into the inbox folder, moving it to",
+            "                  <inbox>/done or <inbox>/failed afterwards",
+            "  --serve         Keep running as a local HTTP service: POST an .xlsx file to /convert?profile=<name> to get",
+            "                  the reformatted file back, GET /status for the load. Answers 429 when all workers are busy",
+            "  <input>         Excel files, folders (their .xlsx/.xls files) or glob patterns such as in/*.xlsx");
+
+    private String profileArg;
+    private String outputArg;
+    private int threads;
+    private CompressionLevel compressionLevel;
+    private boolean incremental;
+    private String watchArg;
+    private boolean restart;
+    private long memoryBudgetMb;
+    private int[] stageThreads = new int[3];
+    private boolean distributed;
+    private long leaseSeconds = SharedFolderQueue.DEFAULT_LEASE_MILLIS / 1000;
+    private int servePort = -1;
+    private final List<String> inputArgs = new ArrayList<>();
+
+
+    /**
+     * Parses the arguments, runs the batch and returns the process exit code.
+     * @param args The command line arguments.
+     * @return int exit code
+     */
+    public static int run(String[] args) {
+        // Keep stdout for the summary, everything else printed by the reformatter goes to stderr
+        PrintStream summaryOut = System.out;
+        System.setOut(System.err);
+
+        CommandLineRunner runner = new CommandLineRunner();
+        if (!runner.parseArguments(args)) {
+            System.err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        try {
+            if (runner.servePort >= 0) {
+                return runner.runServer();
+            }
+            if (runner.watchArg != null) {
+                return runner.runDaemon(summaryOut);
+            }
+            return runner.runBatch(summaryOut);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            return EXIT_USAGE;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return EXIT_FAILED_FILES;
+        }
+    }
+
+    /**
+     * Checks if the given arguments ask for the command line mode
+     * @param args
+     * @return boolean
+     */
+    public static boolean isCommandLine(String[] args) {
+        return args != null && args.length > 0;
+    }
+
+    /**
+     * Expands the input arguments into a sorted list of files.
+     * Folders contribute their .xlsx and .xls files, glob patterns are matched against the files below the folder they start in.
+     * @param inputArgs
+     * @return List of files
+     * @throws IOException if a folder cannot be listed or an input does not exist
+     */
+    public static List<File> resolveInputs(List<String> inputArgs) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (String input : inputArgs) {
+            if (isGlob(input)) {
+                files.addAll(expandGlob(input));
+                continue;
+            }
+            Path path = Paths.get(input);
+            if (Files.isDirectory(path)) {
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+                    List<File> folderFiles = new ArrayList<>();
+                    for (Path entry : entries) {
+                        if (Files.isRegularFile(entry) && isExcelFile(entry)) {
+                            folderFiles.add(entry.toFile());
+                        }
+                    }
+                    folderFiles.sort(null);
+                    files.addAll(folderFiles);
+                }
+            } else if (Files.isRegularFile(path)) {
+                files.add(path.toFile());
+            } else {
+                throw new IOException("Input not found: " + input);
+            }
+        }
+        return files;
+    }
+
+
+    //Helper methods
+    private boolean parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--profile":
+                case "-p":
+                    if (++i >= args.length) return false;
+                    profileArg = args[i];
+                    break;
+                case "--output":
+                case "-o":
+                    if (++i >= args.length) return false;
+                    outputArg = args[i];
+                    break;
+                case "--threads":
+                case "-t":
+                    if (++i >= args.length) return false;
+                    try {
+                        threads = Integer.parseInt(args[i]);
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                    break;
+                case "--compression":
+                    if (++i >= args.length) return false;
+                    try {
+                        compressionLevel = CompressionLevel.valueOf(args[i].toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        return false;
+                    }
+                    break;
+                case "--incremental":
+                    incremental = true;
+                    break;
+                case "--memory-budget":
+                    if (++i >= args.length) return false;
+                    try {
+                        memoryBudgetMb = Long.parseLong(args[i]);
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                    if (memoryBudgetMb < 1) return false;
+                    break;
+                case "--stage-threads":
+                    if (++i >= args.length) return false;
+                    String[] counts = args[i].split(",");
+                    if (counts.length != 3) return false;
+                    try {
+                        for (int stage = 0; stage < 3; stage++) {
+                            stageThreads[stage] = Integer.parseInt(counts[stage].trim());
+                        }
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                    break;
+                case "--restart":
+                    restart = true;
+                    break;
+                case "--distributed":
+                    distributed = true;
+                    break;
+                case "--lease-seconds":
+                    if (++i >= args.length) return false;
+                    try {
+                        leaseSeconds = Long.parseLong(args[i]);
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                    if (leaseSeconds < 1) return false;
+                    break;
+                case "--watch":
+                case "-w":
+                    if (++i >= args.length) return false;
+                    watchArg = args[i];
+                    break;
+                case "--serve":
+                    if (++i >= args.length) return false;
+                    try {
+                        servePort = Integer.parseInt(args[i]);
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                    break;
+                case "--help":
+                case "-h":
+                    return false;
+                default:
+                    if (arg.startsWith("-")) return false;
+                    inputArgs.add(arg);
+                    break;
+            }
+        }
+        if (servePort >= 0) {
+            return profileArg == null && outputArg == null && watchArg == null && inputArgs.isEmpty();
+        }
+        if (watchArg != null) {
+            return profileArg != null && outputArg != null && inputArgs.isEmpty();
+        }
+        return profileArg != null && outputArg != null && !inputArgs.isEmpty();
+    }
+
+    private int runBatch(PrintStream summaryOut) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+
+        ResourcesExtractor extractor = new ResourcesExtractor(false);
+        extractor.extractResources();
+
+        Profile profile = loadProfile(profileArg);
+        if (compressionLevel != null) {
+            profile.setCompressionLevel(compressionLevel);
+        }
+        File outputFolder = new File(outputArg);
+        if (!outputFolder.isDirectory() && !outputFolder.mkdirs()) {
+            throw new IOException("Could not create output folder: " + outputFolder);
+        }
+        List<File> inputFiles = resolveInputs(inputArgs);
+
+        BatchExecutor batch = new BatchExecutor(profile, outputFolder, threads);
+        batch.setIncremental(incremental);
+        batch.setResume(!restart);
+        batch.setMemoryBudget(memoryBudgetMb * 1024 * 1024);
+        batch.setStageThreads(stageThreads[0], stageThreads[1], stageThreads[2]);
+        List<FileResult> results;
+        if (distributed) {
+            try (SharedFolderQueue workQueue = new SharedFolderQueue(outputFolder, batch.getBatchId(inputFiles),
+                    SharedFolderQueue.getDefaultNodeId(), leaseSeconds * 1000)) {
+                System.err.println("Splitting batch " + batch.getBatchId(inputFiles) + " as " + workQueue.getNodeId());
+                batch.setWorkQueue(workQueue);
+                results = runBatch(batch, inputFiles);
+            }
+        } else {
+            results = runBatch(batch, inputFiles);
+        }
+
+        long wallNanos = System.nanoTime() - start;
+        summaryOut.println(buildSummary(profile, results, wallNanos, batch.getThreads(), batch.getStageStats()));
+        summaryOut.flush();
+
+        for (FileResult result : results) {
+            if (!result.isSuccess()) {
+                return EXIT_FAILED_FILES;
+            }
+        }
+        return EXIT_OK;
+    }
+
+    private static List<FileResult> runBatch(BatchExecutor batch, List<File> inputFiles) throws InterruptedException {
+        return batch.run(inputFiles, (result, completed, total, filesPerSecond) ->
+                System.err.printf("[%d/%d] %s %s%n", completed, total, getStatusLabel(result), result.getInputFile()));
+    }
+
+    private int runDaemon(PrintStream statsOut) throws IOException, InterruptedException {
+        ResourcesExtractor extractor = new ResourcesExtractor(false);
+        extractor.extractResources();
+
+        Profile profile = loadProfile(profileArg);
+        if (compressionLevel != null) {
+            profile.setCompressionLevel(compressionLevel);
+        }
+        Path inbox = Paths.get(watchArg);
+        if (!Files.isDirectory(inbox)) {
+            throw new IOException("Inbox not found: " + watchArg);
+        }
+
+        WatchFolderDaemon daemon = new WatchFolderDaemon(profile.getCompiledProfile(), inbox, new File(outputArg), threads, statsOut);
+        daemon.setMemoryBudget(memoryBudgetMb * 1024 * 1024);
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::stop));
+        daemon.start();
+        daemon.awaitEvents();
+        return EXIT_OK;
+    }
+
+    private int runServer() throws IOException, InterruptedException {
+        ResourcesExtractor extractor = new ResourcesExtractor(false);
+        extractor.extractResources();
+
+        // Twice as many conversions as workers may wait, more are answered with 429
+        ConversionServer server = new ConversionServer(servePort, threads, 2 * Math.max(threads, 1));
+        server.setMemoryBudget(memoryBudgetMb * 1024 * 1024);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(5)));
+        server.start();
+        Thread.currentThread().join();
+        return EXIT_OK;
+    }
+
+    private Profile loadProfile(String profile) throws IOException {
+        ProfileManager profileManager = new ProfileManager();
+        if (profile.toLowerCase().endsWith(".json") && Files.isRegularFile(Paths.get(profile))) {
+            return profileManager.loadProfileFromFile(profile);
+        }
+        if (!profileManager.profileExists(profile)) {
+            throw new IllegalArgumentException("Unknown profile: " + profile + ", available profiles: " + profileManager.getProfileNames());
+        }
+        return profileManager.loadProfile(profile);
+    }
+
+    private String buildSummary(Profile profile, List<FileResult> results, long wallNanos, int workers,
+                                Map<String, Map<String, Object>> stageStats) {
+        long rows = 0;
+        long cells = 0;
+        int succeeded = 0;
+        int failed = 0;
+        int cancelled = 0;
+        int skipped = 0;
+        long[] latencies = new long[results.size()];
+        List<Map<String, Object>> files = new ArrayList<>();
+
+        for (int i = 0; i < results.size(); i++) {
+            FileResult result = results.get(i);
+            latencies[i] = result.getElapsedNanos();
+            rows += result.getRows();
+            cells += result.getCells();
+
+            Map<String, Object> file = new LinkedHashMap<>();
+            file.put("input", result.getInputFile().getPath());
+            file.put("output", result.getOutputFile() != null ? result.getOutputFile().getPath() : null);
+            if (result.isSkipped()) {
+                succeeded++;
+                skipped++;
+                file.put("status", "skipped");
+            } else if (result.isSuccess()) {
+                succeeded++;
+                file.put("status", "ok");
+            } else if (result.isCancelled()) {
+                cancelled++;
+                file.put("status", "cancelled");
+            } else {
+                failed++;
+                file.put("status", "failed");
+                file.put("error", String.valueOf(result.getError()));
+            }
+            file.put("latencyMs", toMillis(result.getElapsedNanos()));
+            file.put("rows", result.getRows());
+            file.put("cells", result.getCells());
+            file.put("estimatedCost", result.getEstimatedCost());
+            files.add(file);
+        }
+        Arrays.sort(latencies);
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("profile", profile.getName());
+        summary.put("files", results.size());
+        summary.put("succeeded", succeeded);
+        summary.put("failed", failed);
+        summary.put("cancelled", cancelled);
+        if (incremental) {
+            // Hits are outputs reused from an earlier run, misses are the files that were processed or failed
+            summary.put("manifestHits", skipped);
+            summary.put("manifestMisses", results.size() - skipped - cancelled);
+        }
+        summary.put("rows", rows);
+        summary.put("cells", cells);
+        summary.put("wallTimeMs", toMillis(wallNanos));
+        summary.put("predictedWallTimeMs", toMillis(predictWallTime(results, workers)));
+        summary.put("latencyP50Ms", toMillis(percentile(latencies, 0.50)));
+        summary.put("latencyP95Ms", toMillis(percentile(latencies, 0.95)));
+        summary.put("latencyMaxMs", toMillis(latencies.length > 0 ? latencies[latencies.length - 1] : 0));
+        summary.put("stages", stageStats);
+        summary.put("results", files);
+
+        Gson gson = new GsonBuilder().serializeNulls().create();
+        return gson.toJson(summary);
+    }
+
+    /**
+     * Predicts the wall time of the files that were processed from their estimated costs, at the average time per unit of
+     * cost this batch achieved, so it shows how well the cost estimates and the scheduling match the actual run
+     */
+    private static long predictWallTime(List<FileResult> results, int workers) {
+        List<FileResult> processed = new ArrayList<>();
+        long totalCost = 0;
+        long totalNanos = 0;
+        for (FileResult result : results) {
+            if (!result.isSkipped() && !result.isCancelled()) {
+                processed.add(result);
+                totalCost += result.getEstimatedCost();
+                totalNanos += result.getElapsedNanos();
+            }
+        }
+        if (totalCost == 0) {
+            return 0;
+        }
+        long[] costs = new long[processed.size()];
+        for (int i = 0; i < costs.length; i++) {
+            costs[i] = processed.get(i).getEstimatedCost();
+        }
+        return JobScheduler.predictMakespan(costs, JobScheduler.longestFirst(costs), workers, (double) totalNanos / totalCost);
+    }
+
+    private static String getStatusLabel(FileResult result) {
+        if (result.isSkipped()) {
+            return "SKIP";
+        }
+        return result.isSuccess() ? "OK  " : "FAIL";
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 1e4) / 100.0;
+    }
+
+    static boolean isExcelFile(Path path) {
+        String name = path.getFileName().toString().toLowerCase();
+        // Skip the lock files Excel leaves next to open workbooks
+        return !name.startsWith("~$") && (name.endsWith(".xlsx") || name.endsWith(".xls"));
+    }
+
+    private static boolean isGlob(String input) {
+        return input.indexOf('*') >= 0 || input.indexOf('?') >= 0 || input.indexOf('[') >= 0 || input.indexOf('{') >= 0;
+    }
+
+    private static List<File> expandGlob(String pattern) throws IOException {
+        // Walk from the deepest folder that contains no glob characters
+        String normalized = pattern.replace('\\', '/');
+        int firstGlobChar = normalized.length();
+        for (char c : new char[] {'*', '?', '[', '{'}) {
+            int index = normalized.indexOf(c);
+            if (index >= 0) {
+                firstGlobChar = Math.min(firstGlobChar, index);
+            }
+        }
+        int lastSeparator = normalized.lastIndexOf('/', firstGlobChar);
+        Path base = lastSeparator >= 0 ? Paths.get(normalized.substring(0, lastSeparator + 1)) : Paths.get(".");
+        String relativePattern = lastSeparator >= 0 ? normalized.substring(lastSeparator + 1) : normalized;
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + relativePattern);
+
+        List<File> files = new ArrayList<>();
+        if (!Files.isDirectory(base)) {
+            return files;
+        }
+        try (Stream<Path> paths = Files.walk(base)) {
+            paths.filter(Files::isRegularFile)
+                    .filter(path -> matcher.matches(base.relativize(path)))
+                    .filter(CommandLineRunner::isExcelFile)
+                    .sorted()
+                    .forEach(path -> files.add(path.toFile()));
+        }
+        return files;
+    }
+}
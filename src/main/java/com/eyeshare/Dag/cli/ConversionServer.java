@@ -0,0 +1,260 @@
+package com.eyeshare.Dag.cli;
+
+import com.eyeshare.Dag.functionality.ExcelReformatter;
+import com.eyeshare.Dag.functionality.HeapAdmission;
+import com.eyeshare.Dag.profiles.CompiledProfile;
+import com.eyeshare.Dag.profiles.Profile;
+import com.eyeshare.Dag.profiles.ProfileManager;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * <p>Local HTTP conversion service, so callers get a warm JVM instead of starting one per file.</p>
+ * <p>{@code POST /convert?profile=<name>} takes the .xlsx file as request body and answers with the reformatted workbook.
+ * {@code GET /status} returns the load of the server as JSON. The server only listens on the loopback address.</p>
+ * <p>Profiles come from the {@link ProfileManager} cache and are compiled once, templates from the
+ * {@link com.eyeshare.Dag.functionality.TemplateCache}. Conversions run on a fixed pool of workers. A request is only
+ * admitted while a worker or one of the queue slots is free, otherwise it is answered with 429 right away, before the
+ * upload is read. Admitted conversions wait for their share of the heap budget, see {@link HeapAdmission}.</p>
+ */
+public class ConversionServer {
+    private static final String XLSX_CONTENT_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+    private final int port;
+    private final int threads;
+    private final int capacity;
+    private final ProfileManager profileManager;
+    // One permit per worker and queue slot, requests that cannot get one are rejected
+    private final Semaphore admission;
+    private HeapAdmission heapAdmission = new HeapAdmission(0);
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService workers;
+    private ExecutorService requestThreads;
+
+
+    /**
+     * Constructor for a new ConversionServer object.
+     * @param port The port to listen on, 0 picks a free port.
+     * @param threads Number of conversions that run at the same time, values below 1 use one per available processor.
+     * @param queueSize Number of admitted conversions that may wait for a worker.
+     */
+    public ConversionServer(int port, int threads, int queueSize) {
+        this.port = port;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.capacity = this.threads + Math.max(queueSize, 0);
+        this.profileManager = new ProfileManager();
+        this.admission = new Semaphore(capacity);
+    }
+
+    /**
+     * Set the heap the conversions running at the same time may use together, see {@link HeapAdmission}
+     * @param budgetBytes Values below 1 use three quarters of the maximum heap.
+     */
+    public void setMemoryBudget(long budgetBytes) {
+        this.heapAdmission = new HeapAdmission(budgetBytes);
+    }
+
+    /**
+     * Starts listening
+     * @throws IOException if the port cannot be bound.
+     */
+    public void start() throws IOException {
+        workers = Executors.newFixedThreadPool(threads);
+        // Admitted requests hold a request thread while they wait, a few more answer rejections and status requests
+        requestThreads = Executors.newFixedThreadPool(capacity + 2);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/convert", this::handleConvert);
+        server.createContext("/status", this::handleStatus);
+        server.setExecutor(requestThreads);
+        server.start();
+        System.err.println("Listening on http://localhost:" + getPort() + "/convert with " + threads + " workers");
+    }
+
+    /**
+     * Stops the server, waiting at most the given number of seconds for running conversions
+     * @param delaySeconds
+     */
+    public void stop(int delaySeconds) {
+        if (server != null) {
+            server.stop(delaySeconds);
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+        if (requestThreads != null) {
+            requestThreads.shutdownNow();
+        }
+    }
+
+    /**
+     * Get the port the server listens on
+     * @return int port
+     */
+    public int getPort() {
+        return server != null ? server.getAddress().getPort() : port;
+    }
+
+    /**
+     * Get the load of the server: running and waiting conversions, capacity and totals
+     * @return Map of statistic name to value
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        int admitted = capacity - admission.availablePermits();
+        stats.put("running", Math.min(admitted, threads));
+        stats.put("waiting", Math.max(admitted - threads, 0));
+        stats.put("capacity", capacity);
+        stats.put("completed", completed.get());
+        stats.put("failed", failed.get());
+        stats.put("rejected", rejected.get());
+        stats.put("heapBudgetMb", heapAdmission.getBudgetBytes() / (1024 * 1024));
+        stats.put("heapAvailableMb", heapAdmission.getAvailableBytes() / (1024 * 1024));
+        return stats;
+    }
+
+
+    //Helper methods
+    private void handleConvert(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendText(exchange, 405, "Use POST with the .xlsx file as body");
+                return;
+            }
+            String profileName = getQueryParameter(exchange, "profile");
+            if (profileName == null || profileName.isEmpty() || profileName.contains("/") || profileName.contains("\\")
+                    || profileName.contains("..")) {
+                sendText(exchange, 400, "Missing or invalid profile parameter");
+                return;
+            }
+            if (!admission.tryAcquire()) {
+                rejected.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendText(exchange, 429, "Too many conversions in progress");
+                return;
+            }
+            try {
+                convert(exchange, profileName);
+            } finally {
+                admission.release();
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void convert(HttpExchange exchange, String profileName) throws IOException {
+        Profile profile = profileManager.loadProfile(profileName);
+        if (profile == null) {
+            sendText(exchange, 404, "Unknown profile: " + profileName);
+            return;
+        }
+        CompiledProfile compiledProfile;
+        try {
+            compiledProfile = profile.getCompiledProfile();
+        } catch (IllegalArgumentException e) {
+            sendText(exchange, 422, "Invalid profile: " + e.getMessage());
+            return;
+        }
+
+        Path input = Files.createTempFile("excelreformatter-in-", ".xlsx");
+        Path output = Files.createTempFile("excelreformatter-out-", ".xlsx");
+        try {
+            try (InputStream body = exchange.getRequestBody()) {
+                Files.copy(body, input, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (Files.size(input) == 0) {
+                sendText(exchange, 400, "Empty request body, send the .xlsx file as body");
+                return;
+            }
+            Future<?> job = workers.submit(() -> {
+                // Closed before the temp input is deleted, an open handle would keep it on Windows
+                try (HeapAdmission.Permit permit = heapAdmission.admit(input.toFile(), compiledProfile);
+                     ExcelReformatter reformatter = permit.open(input.toFile(), compiledProfile)) {
+                    reformatter.applyProfile();
+                    reformatter.saveOutputWorkbook(output.toString());
+                }
+                return null;
+            });
+            try {
+                job.get();
+            } catch (ExecutionException e) {
+                failed.incrementAndGet();
+                sendText(exchange, 422, "Conversion failed: " + e.getCause());
+                return;
+            } catch (InterruptedException e) {
+                job.cancel(true);
+                Thread.currentThread().interrupt();
+                sendText(exchange, 503, "Server is shutting down");
+                return;
+            }
+            completed.incrementAndGet();
+            exchange.getResponseHeaders().set("Content-Type", XLSX_CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, Files.size(output));
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                Files.copy(output, responseBody);
+            }
+        } finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(output);
+        }
+    }
+
+    private void handleStatus(HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = new Gson().toJson(getStats()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static String getQueryParameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String parameter : query.split("&")) {
+            int separator = parameter.indexOf('=');
+            String key = separator >= 0 ? parameter.substring(0, separator) : parameter;
+            if (name.equals(URLDecoder.decode(key, StandardCharsets.UTF_8))) {
+                return separator >= 0 ? URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8) : "";
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,355 @@
+package com.eyeshare.Dag.cli;
+
+import com.eyeshare.Dag.functionality.BatchExecutor;
+import com.eyeshare.Dag.functionality.ExcelReformatter;
+import com.eyeshare.Dag.functionality.HeapAdmission;
+import com.eyeshare.Dag.profiles.CompiledProfile;
+
+import com.google.gson.Gson;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * <p>Long-running drop folder mode: Excel files that land in an inbox are reformatted with one profile and moved to a
+ * done or failed folder next to the inbox.</p>
+ * <p>The inbox is watched with a {@link WatchService}. A file is only picked up once its size and modification time have
+ * not changed for {@value #SETTLE_MILLIS} ms and it can be opened, so files that are still being copied are left alone.
+ * Settled files go to a bounded pool of workers; when its queue is full they wait in the inbox until there is room.</p>
+ * <p>The profile is compiled once and the template stays in the {@link com.eyeshare.Dag.functionality.TemplateCache},
+ * so the latency of a file is its processing time, not JVM startup and loading. Workers only start a file while it fits
+ * in the heap budget, see {@link HeapAdmission}. Queue depth and latency statistics are
+ * printed as one JSON line per interval.</p>
+ */
+public class WatchFolderDaemon {
+    // How long the size and modification time of a new file must stay the same before it is processed
+    static final long SETTLE_MILLIS = 2000;
+    private static final long POLL_MILLIS = 500;
+    private static final long STATS_INTERVAL_SECONDS = 30;
+    // Number of recent files the latency percentiles are computed over
+    private static final int LATENCY_WINDOW = 1000;
+
+    private final CompiledProfile profile;
+    private final Path inbox;
+    private final File outputFolder;
+    private final Path doneFolder;
+    private final Path failedFolder;
+    private final int threads;
+    private final PrintStream statsOut;
+    private HeapAdmission admission = new HeapAdmission(0);
+
+    // Files seen in the inbox that are not settled or not yet accepted by the pool
+    private final Map<Path, PendingFile> pending = new ConcurrentHashMap<>();
+    // Files accepted by the pool, kept so a modify event does not pick them up twice
+    private final Map<Path, Boolean> accepted = new ConcurrentHashMap<>();
+    private final AtomicInteger outputNumber = new AtomicInteger();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private long latencyCount;
+
+    private WatchService watchService;
+    private ThreadPoolExecutor workers;
+    private ScheduledExecutorService scheduler;
+    private volatile boolean running;
+
+
+    /**
+     * Constructor for a new WatchFolderDaemon object.
+     * @param profile The compiled profile applied to every file.
+     * @param inbox The folder that is watched.
+     * @param outputFolder The folder the reformatted files are written to.
+     * @param threads Number of worker threads, values below 1 use one thread per available processor.
+     * @param statsOut Receives the statistics lines.
+     */
+    public WatchFolderDaemon(CompiledProfile profile, Path inbox, File outputFolder, int threads, PrintStream statsOut) {
+        this.profile = profile;
+        this.inbox = inbox;
+        this.outputFolder = outputFolder;
+        this.doneFolder = inbox.resolve("done");
+        this.failedFolder = inbox.resolve("failed");
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.statsOut = statsOut;
+    }
+
+    /**
+     * Set the heap the files processed at the same time may use together, see {@link HeapAdmission}
+     * @param budgetBytes Values below 1 use three quarters of the maximum heap.
+     */
+    public void setMemoryBudget(long budgetBytes) {
+        this.admission = new HeapAdmission(budgetBytes);
+    }
+
+    /**
+     * Starts watching the inbox. Files already in the inbox are processed as well.
+     * @throws IOException if the folders cannot be created or the inbox cannot be watched.
+     */
+    public void start() throws IOException {
+        Files.createDirectories(doneFolder);
+        Files.createDirectories(failedFolder);
+        Files.createDirectories(outputFolder.toPath());
+
+        watchService = inbox.getFileSystem().newWatchService();
+        inbox.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        // The queue holds a few files per worker, the rest wait in the inbox
+        workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(threads * 2));
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        running = true;
+
+        scanInbox();
+        scheduler.scheduleWithFixedDelay(this::submitSettledFiles, POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(this::printStats, STATS_INTERVAL_SECONDS, STATS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        System.err.println("Watching " + inbox + " with profile " + profile.getName() + " on " + threads + " threads");
+    }
+
+    /**
+     * Handles the events of the inbox until {@link #stop()} is called
+     * @throws InterruptedException if the calling thread is interrupted while waiting for events.
+     */
+    public void awaitEvents() throws InterruptedException {
+        while (running) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // Events were lost, look at the whole inbox again
+                    scanInbox();
+                } else {
+                    offer(inbox.resolve((Path) event.context()));
+                }
+            }
+            if (!key.reset()) {
+                System.err.println("The inbox " + inbox + " is no longer accessible");
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops watching and waits for the files that are being processed. Queued files stay in the inbox.
+     */
+    public void stop() {
+        running = false;
+        try {
+            if (watchService != null) {
+                watchService.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (workers != null) {
+            workers.shutdown();
+            try {
+                workers.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        printStats();
+    }
+
+    /**
+     * Get the statistics of the daemon: queue depth, files in progress, totals and latency percentiles
+     * @return Map of statistic name to value
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("profile", profile.getName());
+        stats.put("waiting", pending.size());
+        stats.put("queued", workers != null ? workers.getQueue().size() : 0);
+        stats.put("inProgress", workers != null ? workers.getActiveCount() : 0);
+        stats.put("processed", processed.get());
+        stats.put("failed", failed.get());
+        long[] sorted;
+        synchronized (latencies) {
+            sorted = Arrays.copyOf(latencies, (int) Math.min(latencyCount, LATENCY_WINDOW));
+        }
+        Arrays.sort(sorted);
+        stats.put("latencyP50Ms", percentileMillis(sorted, 0.50));
+        stats.put("latencyP95Ms", percentileMillis(sorted, 0.95));
+        stats.put("latencyMaxMs", sorted.length > 0 ? toMillis(sorted[sorted.length - 1]) : 0.0);
+        return stats;
+    }
+
+
+    //Helper methods
+    private void scanInbox() {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(inbox)) {
+            for (Path entry : entries) {
+                offer(entry);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not list the inbox " + inbox + ": " + e.getMessage());
+        }
+    }
+
+    private void offer(Path file) {
+        if (!Files.isRegularFile(file) || !CommandLineRunner.isExcelFile(file) || accepted.containsKey(file)) {
+            return;
+        }
+        pending.computeIfAbsent(file, path -> new PendingFile(System.nanoTime()));
+    }
+
+    private void submitSettledFiles() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, PendingFile>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, PendingFile> entry = iterator.next();
+            Path file = entry.getKey();
+            PendingFile pendingFile = entry.getValue();
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (IOException e) {
+                // Deleted or moved away before it settled
+                iterator.remove();
+                continue;
+            }
+            if (!pendingFile.isSettled(attributes, now) || !canOpen(file)) {
+                continue;
+            }
+            accepted.put(file, Boolean.TRUE);
+            try {
+                workers.execute(() -> processFile(file, pendingFile.detectedNanos));
+            } catch (RejectedExecutionException e) {
+                // The queue is full, try again on the next poll
+                accepted.remove(file);
+                continue;
+            }
+            iterator.remove();
+        }
+    }
+
+    private void processFile(Path file, long detectedNanos) {
+        File outputFile = nextOutputFile(file.toFile());
+        long start = System.nanoTime();
+        try {
+            // The reformatter is closed before the input is moved, an open handle would block the move on Windows
+            try (HeapAdmission.Permit permit = admission.admit(file.toFile(), profile);
+                 ExcelReformatter reformatter = permit.open(file.toFile(), profile)) {
+                reformatter.applyProfile();
+                reformatter.saveOutputWorkbook(outputFile.getAbsolutePath());
+            }
+            moveTo(file, doneFolder);
+            processed.incrementAndGet();
+            System.err.printf("OK   %s -> %s (%.0f ms)%n", file.getFileName(), outputFile.getName(), (System.nanoTime() - start) / 1e6);
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            System.err.println("FAIL " + file.getFileName() + ": " + e);
+            moveTo(file, failedFolder);
+        } finally {
+            accepted.remove(file);
+            recordLatency(System.nanoTime() - detectedNanos);
+        }
+    }
+
+    private File nextOutputFile(File inputFile) {
+        // Never overwrite the output of an earlier run
+        File outputFile;
+        do {
+            String name = BatchExecutor.getOutputFileName(inputFile, profile.getNamingConvention(), profile.getName(), outputNumber.incrementAndGet());
+            outputFile = new File(outputFolder, name);
+        } while (outputFile.exists());
+        return outputFile;
+    }
+
+    private static void moveTo(Path file, Path folder) {
+        try {
+            Files.move(file, folder.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Could not move " + file + " to " + folder + ": " + e.getMessage());
+        }
+    }
+
+    private static boolean canOpen(Path file) {
+        // Writers that lock the file (e.g. copies on Windows shares) make this fail until they are done
+        try (InputStream in = Files.newInputStream(file)) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void recordLatency(long nanos) {
+        synchronized (latencies) {
+            latencies[(int) (latencyCount % LATENCY_WINDOW)] = nanos;
+            latencyCount++;
+        }
+    }
+
+    private void printStats() {
+        statsOut.println(new Gson().toJson(getStats()));
+        statsOut.flush();
+    }
+
+    private static double percentileMillis(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return toMillis(sorted[Math.max(0, Math.min(index, sorted.length - 1))]);
+    }
+
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 1e4) / 100.0;
+    }
+
+
+    /**
+     * A file in the inbox waiting for its size and modification time to settle
+     */
+    private static final class PendingFile {
+        private final long detectedNanos;
+        private long size = -1;
+        private long lastModified = -1;
+        private long unchangedSince;
+
+        PendingFile(long detectedNanos) {
+            this.detectedNanos = detectedNanos;
+        }
+
+        boolean isSettled(BasicFileAttributes attributes, long now) {
+            long currentModified = attributes.lastModifiedTime().toMillis();
+            if (attributes.size() != size || currentModified != lastModified) {
+                size = attributes.size();
+                lastModified = currentModified;
+                unchangedSince = now;
+                return false;
+            }
+            return now - unchangedSince >= SETTLE_MILLIS;
+        }
+    }
+}
@@ -0,0 +1,629 @@
+package com.eyeshare.Dag.functionality;
+
+import com.eyeshare.Dag.profiles.CompiledProfile;
+import com.eyeshare.Dag.profiles.NamingConvention;
+import com.eyeshare.Dag.profiles.Profile;
+import com.eyeshare.Dag.utils.ContentHash;
+
+import com.google.gson.Gson;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * <p>Runs a profile over a batch of files in a pipeline of three stages: reading the source, applying the profile and
+ * writing the output. Each stage has its own threads and a bounded queue in front of it, so the reading and writing of
+ * some files overlaps the transforming of others, see {@link BatchPipeline}.</p>
+ * <p>Output names are assigned from the position of each file in the batch before any work starts, so they do not depend
+ * on the order in which the files complete. Progress is reported to a {@link ProgressListener} from the worker threads.</p>
+ * <p>Conversions only start while their estimated heap footprint fits in the memory budget, see {@link HeapAdmission}.</p>
+ * <p>Files start biggest first by the cost {@link JobScheduler} estimates for them, so a huge file does not run alone at
+ * the end of the batch while the other workers are idle.</p>
+ * <p>The profile is compiled once when the batch is created, so every file uses the same execution plan even if the
+ * profile is edited while the batch runs.</p>
+ * <p>An incremental batch skips the inputs whose output in the destination folder is still valid, checked against the
+ * content hashes in the {@link BatchManifest} of the folder.</p>
+ * <p>Completed outputs are checkpointed in a {@link BatchJournal}, so running a batch again after it crashed, failed or was
+ * cancelled only makes the outputs that are missing or changed.</p>
+ */
+public class BatchExecutor {
+    private final CompiledProfile profile;
+    private final File destinationFolder;
+    private final int threads;
+    private final AtomicBoolean cancelled;
+    // Hash of the profile settings and operations, outputs made with other settings are not reused
+    private final String profileHash;
+    private boolean incremental;
+    private boolean resume = true;
+    private HeapAdmission admission = new HeapAdmission(0);
+    // Threads of the pipeline stages, 0 picks them from the number of worker threads
+    private int readThreads;
+    private int transformThreads;
+    private int writeThreads;
+    private Map<String, Map<String, Object>> lastStageStats = Collections.emptyMap();
+    // Set when the batch is split with other instances through the output folder
+    private SharedFolderQueue workQueue;
+
+
+    /**
+     * Callback receiving the result of every file in the batch.
+     * Called from the worker threads, implementations must hand over to their own thread if needed (e.g. the Swing EDT).
+     */
+    public interface ProgressListener {
+        /**
+         * @param result The result of the file that just finished.
+         * @param completed Number of files finished so far, including this one.
+         * @param total Number of files in the batch.
+         * @param filesPerSecond Throughput of the batch so far.
+         */
+        void onFileFinished(FileResult result, int completed, int total, double filesPerSecond);
+    }
+
+    /**
+     * The outcome of processing a single file
+     */
+    public static class FileResult {
+        private final File inputFile;
+        private final File outputFile;
+        private final Exception error;
+        private final boolean cancelled;
+        private final long elapsedNanos;
+        private final long rows;
+        private final long cells;
+        private final boolean skipped;
+        private long estimatedCost;
+
+        FileResult(File inputFile, File outputFile, Exception error, boolean cancelled, long elapsedNanos) {
+            this(inputFile, outputFile, error, cancelled, elapsedNanos, 0, 0);
+        }
+
+        FileResult(File inputFile, File outputFile, Exception error, boolean cancelled, long elapsedNanos, long rows, long cells) {
+            this(inputFile, outputFile, error, cancelled, elapsedNanos, rows, cells, false);
+        }
+
+        FileResult(File inputFile, File outputFile, Exception error, boolean cancelled, long elapsedNanos, long rows, long cells, boolean skipped) {
+            this.inputFile = inputFile;
+            this.outputFile = outputFile;
+            this.error = error;
+            this.cancelled = cancelled;
+            this.elapsedNanos = elapsedNanos;
+            this.rows = rows;
+            this.cells = cells;
+            this.skipped = skipped;
+        }
+
+        public File getInputFile() {
+            return inputFile;
+        }
+
+        public File getOutputFile() {
+            return outputFile;
+        }
+
+        /**
+         * Get the exception that made the file fail
+         * @return Exception or null if the file succeeded or was cancelled
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        public boolean isSuccess() {
+            return error == null && !cancelled;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Checks if the file was skipped because its output from an earlier incremental batch is still valid, because an
+         * interrupted run of the same batch completed it, or because another instance sharing the output folder processed it.
+         * Skipped files count as successful, their rows and cells are the recorded ones, 0 if they are not known.
+         * @return boolean
+         */
+        public boolean isSkipped() {
+            return skipped;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * Get the number of rows written to the output file
+         * @return long rows
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * Get the number of cells copied to the output file
+         * @return long cells
+         */
+        public long getCells() {
+            return cells;
+        }
+
+        /**
+         * Get the cost the file was scheduled by, see {@link JobScheduler#estimateCost(SourceFootprint)}
+         * @return long estimated cost in bytes of work
+         */
+        public long getEstimatedCost() {
+            return estimatedCost;
+        }
+    }
+
+
+    /**
+     * Constructor for a new BatchExecutor object.
+     * @param profile The profile applied to every file.
+     * @param destinationFolder The folder the output files are written to.
+     * @param threads Number of worker threads, values below 1 use one thread per available processor.
+     * @throws IllegalArgumentException if the profile is invalid.
+     */
+    public BatchExecutor(Profile profile, File destinationFolder, int threads) {
+        this.profile = profile.getCompiledProfile();
+        this.destinationFolder = destinationFolder;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.cancelled = new AtomicBoolean(false);
+        this.profileHash = ContentHash.of(new Gson().toJson(profile));
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Set the heap the conversions running at the same time may use together, see {@link HeapAdmission}
+     * @param budgetBytes Values below 1 use three quarters of the maximum heap.
+     */
+    public void setMemoryBudget(long budgetBytes) {
+        this.admission = new HeapAdmission(budgetBytes);
+    }
+
+    /**
+     * Set the number of threads of each stage of the pipeline. Values below 1 use half the worker threads for reading
+     * and for writing, and the worker threads for transforming.
+     * @param readThreads Threads that parse the sources.
+     * @param transformThreads Threads that apply the profile.
+     * @param writeThreads Threads that serialize and write the outputs.
+     */
+    public void setStageThreads(int readThreads, int transformThreads, int writeThreads) {
+        this.readThreads = readThreads;
+        this.transformThreads = transformThreads;
+        this.writeThreads = writeThreads;
+    }
+
+    /**
+     * Get the statistics of the stages of the last run, see {@link BatchPipeline#getStats()}
+     * @return Map of stage name to statistics
+     */
+    public Map<String, Map<String, Object>> getStageStats() {
+        return lastStageStats;
+    }
+
+    /**
+     * Makes the batch skip inputs whose output is still valid, see {@link BatchManifest}.
+     * The manifest of the destination folder is read when the batch starts and written when it ends.
+     * @param incremental
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Makes the batch continue an earlier run of the same batch that did not complete, see {@link BatchJournal}.
+     * On by default, false starts over and makes every output again.
+     * @param resume
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    /**
+     * Get an id for running this profile over the given files, the same on every instance that sees the same files.
+     * It is made from the profile, the content of its template and the names, sizes and modification times of the files,
+     * not from their paths, since the shared folder may be mounted at different paths on different machines. Editing the
+     * template therefore starts a new batch instead of resuming outputs made with the old one.
+     * @param inputFiles
+     * @return String batch id
+     */
+    public String getBatchId(List<File> inputFiles) {
+        StringBuilder batch = new StringBuilder(profileHash);
+        try {
+            batch.append('\n').append(TemplateCache.getInstance().getContentHash(ExcelHandler.resolveTemplatePath(profile.getTemplatePath())));
+        } catch (IOException e) {
+            // Every file of the batch fails without its template, there is nothing to resume
+            batch.append('\n').append(profile.getTemplatePath());
+        }
+        for (File inputFile : inputFiles) {
+            batch.append('\n').append(inputFile.getName()).append('|').append(inputFile.length()).append('|').append(inputFile.lastModified());
+        }
+        return ContentHash.of(batch.toString()).substring(0, 16);
+    }
+
+    /**
+     * Splits the batch with other instances running it on the same output folder, see {@link SharedFolderQueue}.
+     * A file is only processed by the instance that claims it, files finished by other instances are reported as skipped.
+     * Files claimed by an instance that is still alive are waited for, so every instance returns once the whole batch is done.
+     * @param workQueue The queue in the output folder, or null to process every file here.
+     */
+    public void setWorkQueue(SharedFolderQueue workQueue) {
+        this.workQueue = workQueue;
+    }
+
+    /**
+     * Processes the given files and blocks until all of them are finished or the batch is cancelled.
+     * @param inputFiles The files to process, their order determines the output names.
+     * @param listener Receives the result of every file, may be null.
+     * @return The results in the same order as the input files.
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     */
+    public List<FileResult> run(List<File> inputFiles, ProgressListener listener) throws InterruptedException {
+        int total = inputFiles.size();
+        AtomicInteger completed = new AtomicInteger();
+        long batchStart = System.nanoTime();
+        BatchManifest manifest = null;
+        String templateHash = null;
+        if (incremental) {
+            try {
+                templateHash = TemplateCache.getInstance().getContentHash(ExcelHandler.resolveTemplatePath(profile.getTemplatePath()));
+                manifest = BatchManifest.load(destinationFolder);
+            } catch (IOException e) {
+                System.out.println("Running the batch in full, the template cannot be hashed: " + e.getMessage());
+            }
+        }
+        BatchManifest batchManifest = manifest;
+        String batchTemplateHash = templateHash;
+        List<File> outputFiles = new ArrayList<>(total);
+        for (int i = 0; i < total; i++) {
+            outputFiles.add(new File(destinationFolder, getOutputFileName(inputFiles.get(i), profile.getNamingConvention(), null, i + 1)));
+        }
+        // Instances splitting the batch resume through the completion journal of the queue
+        BatchJournal journal = workQueue == null ? openJournal(inputFiles, outputFiles) : null;
+
+        BatchPipeline<FileJob> pipeline = createPipeline(total);
+        List<FileResult> results = new ArrayList<>(Collections.nCopies(total, null));
+        // Measured once per file, for the schedule here and for the heap budget when the file is read
+        SourceFootprint[] footprints = new SourceFootprint[total];
+        long[] costs = new long[total];
+        for (int i = 0; i < total; i++) {
+            footprints[i] = SourceFootprint.of(inputFiles.get(i), profile.getSourceSheets());
+            costs[i] = JobScheduler.estimateCost(footprints[i]);
+        }
+        List<Integer> remaining = JobScheduler.longestFirst(costs);
+        try {
+            while (true) {
+                List<FileJob> jobs = new ArrayList<>(remaining.size());
+                List<CompletableFuture<FileJob>> futures = new ArrayList<>(remaining.size());
+                for (int i : remaining) {
+                    FileJob job = new FileJob(inputFiles.get(i), outputFiles.get(i), footprints[i], batchManifest, batchTemplateHash, journal);
+                    jobs.add(job);
+                    futures.add(pipeline.submit(job).whenComplete((done, error) -> {
+                        finishFile(job, error);
+                        if (listener != null && job.result != null) {
+                            int count = completed.incrementAndGet();
+                            double seconds = (System.nanoTime() - batchStart) / 1e9;
+                            listener.onFileFinished(job.result, count, total, seconds > 0 ? count / seconds : 0);
+                        }
+                    }));
+                }
+
+                List<Integer> deferred = new ArrayList<>();
+                for (int k = 0; k < remaining.size(); k++) {
+                    int i = remaining.get(k);
+                    try {
+                        futures.get(k).get();
+                    } catch (ExecutionException e) {
+                        // finishFile made the error the result of the file
+                    }
+                    FileResult result = jobs.get(k).result;
+                    if (result == null) {
+                        deferred.add(i);
+                    }
+                    results.set(i, result);
+                }
+                if (deferred.isEmpty()) {
+                    return setEstimatedCosts(results, costs);
+                }
+                if (cancelled.get()) {
+                    for (int i : deferred) {
+                        results.set(i, new FileResult(inputFiles.get(i), null, null, true, 0));
+                    }
+                    return setEstimatedCosts(results, costs);
+                }
+                // The deferred files are claimed by other instances, look again in case they finish or their leases expire
+                Thread.sleep(workQueue.getPollMillis());
+                remaining = deferred;
+            }
+        } finally {
+            pipeline.shutdownNow();
+            lastStageStats = pipeline.getStats();
+            if (manifest != null) {
+                saveManifest(manifest);
+            }
+            if (journal != null) {
+                closeJournal(journal, results);
+            }
+        }
+    }
+
+    /**
+     * Cancels the batch. Files that have not started yet are skipped, files that are being processed are finished.
+     */
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * Builds the name of the output file for the given input file.
+     * @param inputFile The input file.
+     * @param namingConvention The naming convention of the profile.
+     * @param customNamePrefix The prefix used by {@link NamingConvention#CUSTOM_NAME}.
+     * @param fileNumber 1-based position of the file in the batch.
+     * @return String outputFileName
+     */
+    public static String getOutputFileName(File inputFile, NamingConvention namingConvention, String customNamePrefix, int fileNumber) {
+        String outputFileName;
+        String fileName = inputFile.getName();
+        int extensionIndex = fileName.lastIndexOf('.');
+        String fileNameWithoutExtension = extensionIndex == -1 ? fileName : fileName.substring(0, extensionIndex);
+        String extension = extensionIndex == -1 ? "" : fileName.substring(extensionIndex + 1);
+
+        switch (namingConvention) {
+            case PRESERVE_NAME:
+                outputFileName = fileNameWithoutExtension + "_" + fileNumber + "." + extension;
+                break;
+            case CUSTOM_NAME:
+                outputFileName = customNamePrefix + "_" + fileNumber + "." + extension;
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported naming convention: " + namingConvention);
+        }
+        return outputFileName;
+    }
+
+
+    //Helper methods
+    private BatchPipeline<FileJob> createPipeline(int total) {
+        // Files waiting between two stages hold their parsed workbooks, a few per thread keep every stage busy
+        int files = Math.max(total, 1);
+        return new BatchPipeline<FileJob>()
+                .addStage("read", this::readFile, Math.min(readThreads > 0 ? readThreads : Math.max(threads / 2, 1), files), threads)
+                .addStage("transform", this::transformFile, Math.min(transformThreads > 0 ? transformThreads : threads, files), threads)
+                .addStage("write", this::writeFile, Math.min(writeThreads > 0 ? writeThreads : Math.max(threads / 2, 1), files), threads);
+    }
+
+    /**
+     * First stage: decides if the file has to be made at all, waits for its share of the heap and parses the source
+     */
+    private boolean readFile(FileJob job) {
+        if (cancelled.get()) {
+            job.result = new FileResult(job.inputFile, job.outputFile, null, true, 0);
+            return false;
+        }
+        job.start = System.nanoTime();
+        try {
+            if (workQueue != null) {
+                String key = job.outputFile.getName();
+                if (workQueue.isComplete(key)) {
+                    job.result = new FileResult(job.inputFile, job.outputFile, null, false, 0, 0, 0, true);
+                    return false;
+                }
+                if (!workQueue.tryClaim(key)) {
+                    // Another instance is on it, decided again on the next pass
+                    return false;
+                }
+                job.claimed = true;
+            }
+            if (job.journal != null) {
+                BatchJournal.Entry entry = job.journal.getCompletedEntry(job.outputFile);
+                if (entry != null) {
+                    job.result = new FileResult(job.inputFile, job.outputFile, null, false, System.nanoTime() - job.start, entry.getRows(), entry.getCells(), true);
+                    return false;
+                }
+            }
+            if (job.manifest != null) {
+                job.inputHash = ContentHash.of(job.inputFile.toPath());
+                BatchManifest.Entry entry = job.manifest.getValidEntry(job.outputFile, job.inputHash, profileHash, job.templateHash);
+                if (entry != null) {
+                    job.result = new FileResult(job.inputFile, job.outputFile, null, false, System.nanoTime() - job.start, entry.getRows(), entry.getCells(), true);
+                    return false;
+                }
+                // The old output is no longer valid, forget it until the new one is written
+                job.manifest.remove(job.outputFile);
+            }
+            job.permit = admission.admit(job.inputFile, profile, job.footprint);
+            job.reformatter = job.permit.open(job.inputFile, profile);
+            return true;
+        } catch (Exception e) {
+            job.result = new FileResult(job.inputFile, job.outputFile, e, false, System.nanoTime() - job.start);
+            return false;
+        }
+    }
+
+    /**
+     * Second stage: applies the profile
+     */
+    private boolean transformFile(FileJob job) {
+        try {
+            job.reformatter.applyProfile();
+            return true;
+        } catch (Exception e) {
+            job.result = new FileResult(job.inputFile, job.outputFile, e, false, System.nanoTime() - job.start);
+            return false;
+        }
+    }
+
+    /**
+     * Last stage: serializes and writes the output and records it
+     */
+    private boolean writeFile(FileJob job) {
+        ExcelReformatter reformatter = job.reformatter;
+        if (job.claimed && !workQueue.isHeld(job.outputFile.getName())) {
+            // Taken over by another instance while it was read or transformed, that instance writes the output
+            return false;
+        }
+        try {
+            reformatter.saveOutputWorkbook(job.outputFile.getAbsolutePath());
+            if (job.manifest != null) {
+                job.manifest.record(job.outputFile, job.inputFile, job.inputHash, profileHash, job.templateHash, reformatter.getRowsWritten(), reformatter.getCellsCopied());
+            }
+            if (job.journal != null) {
+                try {
+                    job.journal.record(job.outputFile, reformatter.getRowsWritten(), reformatter.getCellsCopied());
+                } catch (IOException e) {
+                    // The output is fine, it is only made again if the batch is resumed
+                    System.out.println("Could not record " + job.outputFile.getName() + " in the batch journal: " + e.getMessage());
+                }
+            }
+            job.result = new FileResult(job.inputFile, job.outputFile, null, false, System.nanoTime() - job.start,
+                    reformatter.getRowsWritten(), reformatter.getCellsCopied());
+        } catch (Exception e) {
+            job.result = new FileResult(job.inputFile, job.outputFile, e, false, System.nanoTime() - job.start);
+        }
+        return false;
+    }
+
+    /**
+     * Releases what the file held when it leaves the pipeline, however it left
+     */
+    private void finishFile(FileJob job, Throwable error) {
+        if (job.reformatter != null) {
+            // Already closed when the output was saved, a file that failed before still holds its source and temp files
+            job.reformatter.close();
+            job.reformatter = null;
+        }
+        if (job.permit != null) {
+            job.permit.close();
+        }
+        if (error != null && job.result == null) {
+            Exception exception = error instanceof Exception ? (Exception) error : new RuntimeException(error);
+            job.result = new FileResult(job.inputFile, job.outputFile, exception, false, job.start > 0 ? System.nanoTime() - job.start : 0);
+        }
+        if (job.claimed) {
+            String key = job.outputFile.getName();
+            if (job.result == null || !job.result.isSuccess()) {
+                // Failed files are not recorded, another instance or the next run tries them again. Without a result the
+                // lease was taken over before the output was written.
+                workQueue.release(key);
+                return;
+            }
+            try {
+                if (!workQueue.complete(key)) {
+                    // Taken over by another instance, its result counts, decided again on the next pass
+                    job.result = null;
+                }
+            } catch (IOException e) {
+                System.out.println("Could not record " + key + " in the completion journal: " + e.getMessage());
+            }
+        }
+    }
+
+    private static List<FileResult> setEstimatedCosts(List<FileResult> results, long[] costs) {
+        for (int i = 0; i < results.size(); i++) {
+            results.get(i).estimatedCost = costs[i];
+        }
+        return results;
+    }
+
+    private BatchJournal openJournal(List<File> inputFiles, List<File> outputFiles) {
+        try {
+            Set<String> outputNames = new HashSet<>();
+            for (File outputFile : outputFiles) {
+                outputNames.add(outputFile.getName());
+            }
+            int deleted = ExcelHandler.deleteLeftoverTempFiles(destinationFolder.toPath(), outputNames);
+            if (deleted > 0) {
+                System.out.println("Deleted " + deleted + " unfinished outputs of an interrupted run");
+            }
+            BatchJournal journal = BatchJournal.open(destinationFolder, getBatchId(inputFiles), resume);
+            if (journal.getRecoveredCount() > 0) {
+                System.out.println("Resuming the batch, " + journal.getRecoveredCount() + " outputs were completed by an earlier run");
+            }
+            return journal;
+        } catch (IOException e) {
+            System.out.println("Running the batch without a checkpoint journal: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void closeJournal(BatchJournal journal, List<FileResult> results) {
+        boolean complete = true;
+        for (FileResult result : results) {
+            if (result == null || !result.isSuccess()) {
+                complete = false;
+                break;
+            }
+        }
+        try {
+            journal.close(complete);
+        } catch (IOException e) {
+            System.out.println("Error closing the batch journal: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void saveManifest(BatchManifest manifest) {
+        try {
+            manifest.save();
+        } catch (IOException e) {
+            System.out.println("Error saving the batch manifest: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     * A file on its way through the pipeline
+     */
+    private static class FileJob {
+        private final File inputFile;
+        private final File outputFile;
+        private final SourceFootprint footprint;
+        private final BatchManifest manifest;
+        private final String templateHash;
+        private final BatchJournal journal;
+        private long start;
+        private boolean claimed;
+        private String inputHash;
+        private HeapAdmission.Permit permit;
+        private ExcelReformatter reformatter;
+        // Set by the stage the file leaves the pipeline from, null if it was left to another instance
+        private FileResult result;
+
+        private FileJob(File inputFile, File outputFile, SourceFootprint footprint, BatchManifest manifest, String templateHash, BatchJournal journal) {
+            this.inputFile = inputFile;
+            this.outputFile = outputFile;
+            this.footprint = footprint;
+            this.manifest = manifest;
+            this.templateHash = templateHash;
+            this.journal = journal;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.eyeshare.Dag.functionality;
+
+import com.eyeshare.Dag.utils.ContentHash;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * <p>Checkpoint journal of a batch, so a batch that was interrupted resumes where it stopped instead of starting over.</p>
+ * <p>Every output is recorded with its content hash as soon as it is written, one JSON line per output, appended to
+ * {@value #FILE_PREFIX}&lt;batch id&gt;.log in the output folder. Every entry is synced to disk before the output counts
+ * as done, like the output itself, so a crash loses at most the entry that was being written, and that output is simply
+ * made again.</p>
+ * <p>When the same batch is started again, an output recorded in the journal is only reused if its content still has the
+ * recorded hash. A half written last line from a crash is cut off before new entries are appended. The journal is deleted when a batch completes
+ * without failures, so the next run of the same batch starts from scratch.</p>
+ */
+public class BatchJournal implements Closeable {
+    public static final String FILE_PREFIX = ".excelreformatter-journal-";
+
+    private final Path path;
+    // Entries of an earlier run of the batch, by output name
+    private final Map<String, Entry> recovered;
+    private final FileChannel channel;
+
+
+    private BatchJournal(Path path, Map<String, Entry> recovered, long completeLength) throws IOException {
+        this.path = path;
+        this.recovered = recovered;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // Cut off a half written last line, new entries would otherwise be appended to it and be lost with it
+        channel.truncate(completeLength);
+        channel.position(completeLength);
+    }
+
+    /**
+     * Opens the journal of the given batch, reading the entries of an earlier run that was interrupted
+     * @param outputFolder
+     * @param batchId Identifies the batch, see {@link BatchExecutor#getBatchId(java.util.List)}.
+     * @param resume False to discard the journal of an earlier run and start over.
+     * @return BatchJournal
+     * @throws IOException if the journal cannot be opened for writing.
+     */
+    public static BatchJournal open(File outputFolder, String batchId, boolean resume) throws IOException {
+        Path path = outputFolder.toPath().resolve(FILE_PREFIX + batchId + ".log");
+        if (!resume) {
+            Files.deleteIfExists(path);
+        }
+        Map<String, Entry> recovered = new HashMap<>();
+        long completeLength = 0;
+        Gson gson = new Gson();
+        try {
+            byte[] content = Files.readAllBytes(path);
+            // Only lines with their line break were written completely
+            while (completeLength < content.length) {
+                int lineEnd = indexOf(content, (byte) '\n', (int) completeLength);
+                if (lineEnd < 0) {
+                    break;
+                }
+                String line = new String(content, (int) completeLength, lineEnd - (int) completeLength, StandardCharsets.UTF_8);
+                completeLength = lineEnd + 1;
+                try {
+                    Entry entry = gson.fromJson(line, Entry.class);
+                    if (entry != null && entry.output != null && entry.outputHash != null) {
+                        recovered.put(entry.output, entry);
+                    }
+                } catch (JsonParseException e) {
+                    // Garbage the file system left behind after a crash
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // First run of this batch
+        }
+        return new BatchJournal(path, recovered, completeLength);
+    }
+
+    /**
+     * Get the number of outputs recorded by an earlier run of the batch
+     * @return int
+     */
+    public int getRecoveredCount() {
+        return recovered.size();
+    }
+
+    /**
+     * Checks if the output was completed by an earlier run of the batch and is still intact
+     * @param outputFile
+     * @return the recorded {@link Entry}, or null if the output has to be made
+     */
+    public Entry getCompletedEntry(File outputFile) {
+        Entry entry = recovered.get(outputFile.getName());
+        if (entry == null) {
+            return null;
+        }
+        try {
+            if (Files.size(outputFile.toPath()) == entry.outputSize && ContentHash.of(outputFile.toPath()).equals(entry.outputHash)) {
+                return entry;
+            }
+        } catch (IOException e) {
+            // The output was deleted or cannot be read
+        }
+        System.err.println("Making " + outputFile.getName() + " again, it changed since it was recorded in the journal");
+        return null;
+    }
+
+    /**
+     * Appends an output that was just written to the journal and syncs it to disk
+     * @param outputFile
+     * @param rows Number of rows written to the output.
+     * @param cells Number of cells copied to the output.
+     * @throws IOException if the output cannot be hashed or the journal cannot be written.
+     */
+    public void record(File outputFile, long rows, long cells) throws IOException {
+        Entry entry = new Entry();
+        entry.output = outputFile.getName();
+        entry.outputHash = ContentHash.of(outputFile.toPath());
+        entry.outputSize = Files.size(outputFile.toPath());
+        entry.rows = rows;
+        entry.cells = cells;
+        ByteBuffer line = StandardCharsets.UTF_8.encode(new Gson().toJson(entry) + "\n");
+        synchronized (this) {
+            while (line.hasRemaining()) {
+                channel.write(line);
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Closes the journal, deleting it if the batch is complete
+     * @param complete True if every file of the batch succeeded, so there is nothing left to resume.
+     * @throws IOException if the journal cannot be closed or deleted.
+     */
+    public synchronized void close(boolean complete) throws IOException {
+        channel.close();
+        if (complete) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Closes the journal and keeps it for a later run
+     */
+    @Override
+    public void close() throws IOException {
+        close(false);
+    }
+
+
+    //Helper methods
+    private static int indexOf(byte[] bytes, byte value, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * What is recorded about one completed output
+     */
+    public static class Entry {
+        private String output;
+        private String outputHash;
+        private long outputSize;
+        private long rows;
+        private long cells;
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getCells() {
+            return cells;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.eyeshare.Dag.functionality;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * <p>Manifest of the outputs in an output folder, used by incremental batches to skip inputs that have not changed.</p>
+ * <p>For every output file it records the content hashes of the input, the profile and the template it was made from, and
+ * the size and modification time the output had when it was written. An output is still valid when all three hashes
+ * match and the output file is unchanged on disk.</p>
+ * <p>The manifest is kept in {@value #FILE_NAME} inside the output folder. It is safe to update from the worker threads
+ * of a batch and is written with a temp file and a rename, so a crash never leaves a half written manifest behind.</p>
+ */
+public class BatchManifest {
+    public static final String FILE_NAME = ".excelreformatter-manifest.json";
+    private static final int VERSION = 1;
+
+    private final Path path;
+    private final Map<String, Entry> entries;
+
+
+    private BatchManifest(Path path, Map<String, Entry> entries) {
+        this.path = path;
+        this.entries = entries;
+    }
+
+    /**
+     * Loads the manifest of the given output folder, a missing or unreadable manifest gives an empty one
+     * @param outputFolder
+     * @return BatchManifest
+     */
+    public static BatchManifest load(File outputFolder) {
+        Path path = outputFolder.toPath().resolve(FILE_NAME);
+        Map<String, Entry> entries = new ConcurrentHashMap<>();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            Contents contents = new Gson().fromJson(reader, Contents.class);
+            if (contents != null && contents.version == VERSION && contents.entries != null) {
+                entries.putAll(contents.entries);
+            }
+        } catch (NoSuchFileException e) {
+            // First incremental run into this folder
+        } catch (IOException | JsonParseException e) {
+            System.out.println("Ignoring unreadable manifest " + path + ": " + e.getMessage());
+        }
+        return new BatchManifest(path, entries);
+    }
+
+    /**
+     * Checks if the output file is still valid for the given hashes
+     * @param outputFile
+     * @param inputHash
+     * @param profileHash
+     * @param templateHash
+     * @return the recorded {@link Entry}, or null if the output has to be made again
+     */
+    public Entry getValidEntry(File outputFile, String inputHash, String profileHash, String templateHash) {
+        Entry entry = entries.get(outputFile.getName());
+        if (entry == null || !inputHash.equals(entry.inputHash) || !profileHash.equals(entry.profileHash)
+                || !templateHash.equals(entry.templateHash)) {
+            return null;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(outputFile.toPath(), BasicFileAttributes.class);
+            if (attributes.size() != entry.outputSize || attributes.lastModifiedTime().toMillis() != entry.outputModified) {
+                return null;
+            }
+        } catch (IOException e) {
+            // The output was deleted or cannot be read
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Records an output file that was just written
+     * @param outputFile
+     * @param inputFile
+     * @param inputHash
+     * @param profileHash
+     * @param templateHash
+     * @param rows Number of rows written to the output.
+     * @param cells Number of cells copied to the output.
+     * @throws IOException if the attributes of the output file cannot be read.
+     */
+    public void record(File outputFile, File inputFile, String inputHash, String profileHash, String templateHash,
+                       long rows, long cells) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(outputFile.toPath(), BasicFileAttributes.class);
+        Entry entry = new Entry();
+        entry.input = inputFile.getAbsolutePath();
+        entry.inputHash = inputHash;
+        entry.profileHash = profileHash;
+        entry.templateHash = templateHash;
+        entry.outputSize = attributes.size();
+        entry.outputModified = attributes.lastModifiedTime().toMillis();
+        entry.rows = rows;
+        entry.cells = cells;
+        entries.put(outputFile.getName(), entry);
+    }
+
+    /**
+     * Forgets an output file, for example because writing it failed
+     * @param outputFile
+     */
+    public void remove(File outputFile) {
+        entries.remove(outputFile.getName());
+    }
+
+    /**
+     * Writes the manifest to the output folder
+     * @throws IOException if the manifest cannot be written.
+     */
+    public void save() throws IOException {
+        Contents contents = new Contents();
+        contents.version = VERSION;
+        contents.entries = new TreeMap<>(entries);
+
+        Path tempFile = Files.createTempFile(path.getParent(), FILE_NAME, ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                new GsonBuilder().setPrettyPrinting().create().toJson(contents, writer);
+            }
+            try {
+                Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+
+    /**
+     * What is recorded about one output file
+     */
+    public static class Entry {
+        private String input;
+        private String inputHash;
+        private String profileHash;
+        private String templateHash;
+        private long outputSize;
+        private long outputModified;
+        private long rows;
+        private long cells;
+
+        public String getInput() {
+            return input;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getCells() {
+            return cells;
+        }
+    }
+
+
+    /**
+     * Layout of the manifest file
+     */
+    private static class Contents {
+        private int version;
+        private Map<String, Entry> entries;
+    }
+}
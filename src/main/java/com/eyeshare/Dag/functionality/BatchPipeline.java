@@ -0,0 +1,199 @@
+package com.eyeshare.Dag.functionality;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * <p>Runs items through a chain of stages, each on its own pool of threads with a bounded queue in front of it, so the
+ * stages of different items overlap: while one item is transformed the next is read and the previous one written.</p>
+ * <p>A stage hands an item to the next one by putting it in its queue, and waits while that queue is full. A slow stage
+ * therefore holds back the stages before it instead of letting finished work pile up in memory.</p>
+ * <p>Every stage counts the items it processed, the time its threads were busy and the depth of its queue, see
+ * {@link #getStats()}. The stage with the highest utilization, or the one whose queue stays full, is the bottleneck.</p>
+ * <p>Every submitted item leaves the pipeline through its future, also when a stage fails or the pipeline is shut down,
+ * so whatever the item holds can be released when the future completes.</p>
+ * @param <T> The type of the items.
+ */
+public class BatchPipeline<T> {
+    private final List<StageRunner> stages = new ArrayList<>();
+    private final long startNanos = System.nanoTime();
+
+
+    /**
+     * One step of the pipeline
+     * @param <T> The type of the items.
+     */
+    public interface Stage<T> {
+        /**
+         * Processes an item. Should handle its own errors, exceptions end the item like a return value of false.
+         * @param item
+         * @return true to hand the item to the next stage, false if it is done
+         * @throws Exception if the item cannot be processed.
+         */
+        boolean process(T item) throws Exception;
+    }
+
+
+    /**
+     * Adds a stage at the end of the pipeline. Stages must be added before the first item is submitted.
+     * @param name Name of the stage in the statistics.
+     * @param stage
+     * @param threads Number of threads of the stage.
+     * @param queueCapacity Number of items that may wait for the stage.
+     * @return this pipeline
+     */
+    public BatchPipeline<T> addStage(String name, Stage<T> stage, int threads, int queueCapacity) {
+        stages.add(new StageRunner(name, stage, Math.max(threads, 1), Math.max(queueCapacity, 1)));
+        return this;
+    }
+
+    /**
+     * Puts an item into the first stage, waiting while its queue is full
+     * @param item
+     * @return future completed with the item when it left the pipeline, or with the exception a stage threw
+     * @throws RejectedExecutionException if the pipeline was shut down or the thread interrupted while waiting.
+     */
+    public CompletableFuture<T> submit(T item) {
+        CompletableFuture<T> done = new CompletableFuture<>();
+        hand(0, item, done);
+        return done;
+    }
+
+    /**
+     * Get the statistics of every stage: threads, items processed, current and highest queue depth and utilization,
+     * the share of the time since the pipeline was created that the threads of the stage were busy
+     * @return Map of stage name to statistics
+     */
+    public Map<String, Map<String, Object>> getStats() {
+        long elapsed = Math.max(System.nanoTime() - startNanos, 1);
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        for (StageRunner stage : stages) {
+            Map<String, Object> stageStats = new LinkedHashMap<>();
+            stageStats.put("threads", stage.threads);
+            stageStats.put("processed", stage.processed.get());
+            stageStats.put("queueDepth", stage.pool.getQueue().size());
+            stageStats.put("maxQueueDepth", stage.maxQueueDepth.get());
+            stageStats.put("queueCapacity", stage.queueCapacity);
+            stageStats.put("busyMs", Math.round(stage.busyNanos.get() / 1e4) / 100.0);
+            stageStats.put("utilization", Math.round(1000.0 * stage.busyNanos.get() / ((double) elapsed * stage.threads)) / 1000.0);
+            stats.put(stage.name, stageStats);
+        }
+        return stats;
+    }
+
+    /**
+     * Stops the threads of every stage. The futures of the items still waiting complete with a {@link CancellationException}.
+     */
+    public void shutdownNow() {
+        for (StageRunner stage : stages) {
+            for (Runnable dropped : stage.pool.shutdownNow()) {
+                ((BatchPipeline<?>.StageTask) dropped).done.completeExceptionally(new CancellationException("The pipeline was shut down"));
+            }
+        }
+    }
+
+
+    //Helper methods
+    private void hand(int index, T item, CompletableFuture<T> done) {
+        if (index == stages.size()) {
+            done.complete(item);
+            return;
+        }
+        StageRunner stage = stages.get(index);
+        stage.pool.execute(new StageTask(index, item, done));
+        stage.maxQueueDepth.accumulateAndGet(stage.pool.getQueue().size(), Math::max);
+    }
+
+
+    /**
+     * An item waiting for or running in a stage
+     */
+    private class StageTask implements Runnable {
+        private final int index;
+        private final T item;
+        private final CompletableFuture<T> done;
+
+        private StageTask(int index, T item, CompletableFuture<T> done) {
+            this.index = index;
+            this.item = item;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            StageRunner stage = stages.get(index);
+            long start = System.nanoTime();
+            boolean next;
+            try {
+                next = stage.stage.process(item);
+            } catch (Throwable e) {
+                done.completeExceptionally(e);
+                return;
+            } finally {
+                stage.busyNanos.addAndGet(System.nanoTime() - start);
+                stage.processed.incrementAndGet();
+            }
+            if (next) {
+                try {
+                    hand(index + 1, item, done);
+                } catch (RejectedExecutionException e) {
+                    done.completeExceptionally(e);
+                }
+            } else {
+                done.complete(item);
+            }
+        }
+    }
+
+
+    /**
+     * A stage with its threads, queue and counters
+     */
+    private class StageRunner {
+        private final String name;
+        private final Stage<T> stage;
+        private final int threads;
+        private final int queueCapacity;
+        private final ThreadPoolExecutor pool;
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+        private StageRunner(String name, Stage<T> stage, int threads, int queueCapacity) {
+            this.name = name;
+            this.stage = stage;
+            this.threads = threads;
+            this.queueCapacity = queueCapacity;
+            AtomicInteger threadNumber = new AtomicInteger();
+            // A full queue makes the handing thread wait for room instead of rejecting the item
+            this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity),
+                    runnable -> new Thread(runnable, "batch-" + name + "-" + threadNumber.incrementAndGet()),
+                    (runnable, executor) -> {
+                        if (executor.isShutdown()) {
+                            throw new RejectedExecutionException("The pipeline was shut down");
+                        }
+                        try {
+                            executor.getQueue().put(runnable);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException(e);
+                        }
+                        // Shut down while waiting for room, the item would neither run nor be handed back by shutdownNow
+                        if (executor.isShutdown() && executor.getQueue().remove(runnable)) {
+                            throw new RejectedExecutionException("The pipeline was shut down");
+                        }
+                    });
+        }
+    }
+}
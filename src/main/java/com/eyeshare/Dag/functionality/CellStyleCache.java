@@ -0,0 +1,114 @@
+package com.eyeshare.Dag.functionality;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DataFormat;
+import org.apache.poi.ss.usermodel.Workbook;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+
+/**
+ * <p>Interns the cell styles copied into an output workbook.</p>
+ * <p>Every distinct source style (identified by its source workbook, style index and data format string) is cloned into
+ * the output workbook once and reused for every later cell with the same style. This keeps the output style table as
+ * small as the set of styles actually used, well below the 64 000 styles Excel allows.</p>
+ */
+public class CellStyleCache {
+    private final Workbook destination;
+    private final DataFormat dataFormat;
+    private final Map<StyleKey, CellStyle> styles;
+    private long hits;
+    private long misses;
+
+
+    /**
+     * Constructor for a new CellStyleCache object.
+     * @param destination The output workbook the styles are cloned into.
+     */
+    public CellStyleCache(Workbook destination) {
+        this.destination = destination;
+        this.dataFormat = destination.createDataFormat();
+        this.styles = new HashMap<>();
+    }
+
+    /**
+     * Returns the output style for the given source style, cloning it on first use.
+     * @param sourceWorkbook The workbook (or streaming reader) the source style belongs to, compared by identity.
+     * @param sourceStyle The style of the source cell.
+     * @return {@link CellStyle} belonging to the output workbook
+     */
+    public CellStyle getStyle(Object sourceWorkbook, CellStyle sourceStyle) {
+        StyleKey key = new StyleKey(sourceWorkbook, Short.toUnsignedInt(sourceStyle.getIndex()), sourceStyle.getDataFormatString());
+        CellStyle style = styles.get(key);
+        if (style != null) {
+            hits++;
+            return style;
+        }
+        misses++;
+        style = destination.createCellStyle();
+        style.cloneStyleFrom(sourceStyle);
+        style.setDataFormat(dataFormat.getFormat(sourceStyle.getDataFormatString()));
+        styles.put(key, style);
+        return style;
+    }
+
+    /**
+     * Get the number of lookups that reused an already cloned style
+     * @return long hits
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of lookups that had to clone a new style into the output workbook
+     * @return long misses
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the number of styles this cache added to the output workbook
+     * @return int size
+     */
+    public int size() {
+        return styles.size();
+    }
+
+    @Override
+    public String toString() {
+        return "CellStyleCache{styles=" + size() + ", hits=" + hits + ", misses=" + misses + "}";
+    }
+
+
+    private static final class StyleKey {
+        private final Object sourceWorkbook;
+        private final int styleIndex;
+        private final String dataFormat;
+
+        StyleKey(Object sourceWorkbook, int styleIndex, String dataFormat) {
+            this.sourceWorkbook = sourceWorkbook;
+            this.styleIndex = styleIndex;
+            this.dataFormat = dataFormat;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof StyleKey)) {
+                return false;
+            }
+            StyleKey other = (StyleKey) o;
+            return sourceWorkbook == other.sourceWorkbook
+                    && styleIndex == other.styleIndex
+                    && Objects.equals(dataFormat, other.dataFormat);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(sourceWorkbook) + styleIndex) + Objects.hashCode(dataFormat);
+        }
+    }
+}
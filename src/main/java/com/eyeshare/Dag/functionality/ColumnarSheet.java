@@ -0,0 +1,265 @@
+package com.eyeshare.Dag.functionality;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.xssf.model.StylesTable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * <p>Columnar in-memory form of a source sheet, filled from the {@link StreamingSourceReader}.</p>
+ * <p>Every column keeps its cells in primitive arrays indexed by row: a type code, the numeric value, an index into a
+ * dictionary of the distinct strings of the sheet (text, formulas and error codes), a bit per boolean and the index of the
+ * cell style in the source styles table. That is about 17 bytes per cell instead of the hundreds of a POI cell, and
+ * every cell can be read at random without parsing the sheet again.</p>
+ * <p>The {@link SheetOccupancy} of the sheet is built while the cells are loaded.</p>
+ */
+public class ColumnarSheet {
+    private static final int INITIAL_ROWS = 1024;
+    private static final CellType[] CELL_TYPES = CellType.values();
+
+    private final StylesTable styles;
+    private final boolean date1904;
+    private final BitSet presentRows;
+    private final SheetOccupancy occupancy;
+    private final List<String> strings;
+    private final Map<String, Integer> stringIds;
+    private Column[] columns;
+    private int lastRowNum;
+
+
+    private ColumnarSheet(StylesTable styles, boolean date1904) {
+        this.styles = styles;
+        this.date1904 = date1904;
+        this.presentRows = new BitSet();
+        this.occupancy = new SheetOccupancy();
+        this.strings = new ArrayList<>();
+        this.stringIds = new HashMap<>();
+        this.columns = new Column[0];
+        this.lastRowNum = -1;
+    }
+
+    /**
+     * Reads the sheet at the given index into columns
+     * @param reader The reader of the source file.
+     * @param sheetIndex 0-based index of the sheet in workbook order.
+     * @return ColumnarSheet
+     * @throws IOException if the sheet cannot be read.
+     */
+    public static ColumnarSheet read(StreamingSourceReader reader, int sheetIndex) throws IOException {
+        return read(reader, sheetIndex, null);
+    }
+
+    /**
+     * Reads the given columns of the sheet at the given index, the other columns are left out.
+     * Rows holding data only in the left out columns still count as data rows in the occupancy index.
+     * @param reader The reader of the source file.
+     * @param sheetIndex 0-based index of the sheet in workbook order.
+     * @param columns The 0-based indexes of the columns to read, null to read all columns.
+     * @return ColumnarSheet
+     * @throws IOException if the sheet cannot be read.
+     */
+    public static ColumnarSheet read(StreamingSourceReader reader, int sheetIndex, BitSet columns) throws IOException {
+        ColumnarSheet sheet = new ColumnarSheet(reader.getStyles(), reader.isDate1904());
+        reader.readSheet(sheetIndex, columns, row -> {
+            sheet.addRow(row);
+            return true;
+        });
+        return sheet;
+    }
+
+    /**
+     * Get the index of the last row in the sheet, -1 if the sheet has no rows
+     * @return int lastRowNum
+     */
+    public int getLastRowNum() {
+        return lastRowNum;
+    }
+
+    /**
+     * Checks if the row is present in the sheet, like {@link org.apache.poi.ss.usermodel.Sheet#getRow(int)} returning a row
+     * @param row
+     * @return boolean
+     */
+    public boolean isRowPresent(int row) {
+        return presentRows.get(row);
+    }
+
+    /**
+     * Get the number of columns that hold cells in any row
+     * @return int
+     */
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    /**
+     * Get the occupancy index built while the sheet was read
+     * @return {@link SheetOccupancy}
+     */
+    public SheetOccupancy getOccupancy() {
+        return occupancy;
+    }
+
+    /**
+     * Get the type of a cell
+     * @param row
+     * @param col
+     * @return {@link CellType} or null if there is no cell
+     */
+    public CellType getCellType(int row, int col) {
+        if (col >= columns.length || row >= columns[col].size) {
+            return null;
+        }
+        int type = columns[col].types[row];
+        return type == 0 ? null : CELL_TYPES[type - 1];
+    }
+
+    public double getNumericCellValue(int row, int col) {
+        return columns[col].numbers[row];
+    }
+
+    public boolean getBooleanCellValue(int row, int col) {
+        return columns[col].booleans.get(row);
+    }
+
+    public String getStringCellValue(int row, int col) {
+        return strings.get(columns[col].strings[row]);
+    }
+
+    public String getCellFormula(int row, int col) {
+        return strings.get(columns[col].strings[row]);
+    }
+
+    /**
+     * Get the value of a numeric cell as a date, using the date system of the source workbook
+     * @param row
+     * @param col
+     * @return Date
+     */
+    public Date getDateCellValue(int row, int col) {
+        return DateUtil.getJavaDate(columns[col].numbers[row], date1904);
+    }
+
+    /**
+     * Get the style of a cell, resolved against the styles table of the source workbook
+     * @param row
+     * @param col
+     * @return {@link CellStyle}
+     */
+    public CellStyle getCellStyle(int row, int col) {
+        return styles.getStyleAt(columns[col].styleIndexes[row]);
+    }
+
+    /**
+     * Checks if a numeric cell is formatted as a date.
+     * Matches {@link DateUtil#isCellDateFormatted(org.apache.poi.ss.usermodel.Cell)}.
+     * @param row
+     * @param col
+     * @return boolean
+     */
+    public boolean isCellDateFormatted(int row, int col) {
+        if (!DateUtil.isValidExcelDate(columns[col].numbers[row])) {
+            return false;
+        }
+        CellStyle style = getCellStyle(row, col);
+        return style != null && DateUtil.isADateFormat(style.getDataFormat(), style.getDataFormatString());
+    }
+
+
+    //Helper methods
+    private void addRow(StreamedRow row) {
+        int rowNum = row.getRowNum();
+        presentRows.set(rowNum);
+        lastRowNum = Math.max(lastRowNum, rowNum);
+        occupancy.markRow(rowNum);
+        if (row.hasDataOutsideProjection()) {
+            occupancy.markNonBlankRow(rowNum);
+        }
+
+        for (int col = 0; col < row.getLastCellNum(); col++) {
+            CellType type = row.getCellType(col);
+            if (type == null) {
+                continue;
+            }
+            Column column = getColumn(col);
+            column.ensureRow(rowNum);
+            column.types[rowNum] = (byte) (type.ordinal() + 1);
+            column.styleIndexes[rowNum] = row.getStyleIndex(col);
+            switch (type) {
+                case NUMERIC:
+                    column.numbers[rowNum] = row.getNumericCellValue(col);
+                    break;
+                case BOOLEAN:
+                    column.booleans.set(rowNum, row.getBooleanCellValue(col));
+                    break;
+                case STRING:
+                case ERROR:
+                    column.strings[rowNum] = stringId(row.getStringCellValue(col));
+                    break;
+                case FORMULA:
+                    column.strings[rowNum] = stringId(row.getCellFormula(col));
+                    break;
+                default:
+                    break;
+            }
+            if (!row.isBlank(col)) {
+                occupancy.markNonBlank(rowNum, col);
+            }
+        }
+    }
+
+    private Column getColumn(int col) {
+        if (col >= columns.length) {
+            int oldLength = columns.length;
+            columns = Arrays.copyOf(columns, col + 1);
+            for (int i = oldLength; i < columns.length; i++) {
+                columns[i] = new Column();
+            }
+        }
+        return columns[col];
+    }
+
+    private int stringId(String value) {
+        Integer id = stringIds.get(value);
+        if (id == null) {
+            id = strings.size();
+            strings.add(value);
+            stringIds.put(value, id);
+        }
+        return id;
+    }
+
+
+    /**
+     * The cells of one column, indexed by row
+     */
+    private static final class Column {
+        private byte[] types = new byte[0];
+        private double[] numbers = new double[0];
+        private int[] strings = new int[0];
+        private int[] styleIndexes = new int[0];
+        private final BitSet booleans = new BitSet();
+        private int size;
+
+        void ensureRow(int row) {
+            if (row >= types.length) {
+                int capacity = Math.max(INITIAL_ROWS, Math.max(row + 1, types.length * 2));
+                types = Arrays.copyOf(types, capacity);
+                numbers = Arrays.copyOf(numbers, capacity);
+                strings = Arrays.copyOf(strings, capacity);
+                styleIndexes = Arrays.copyOf(styleIndexes, capacity);
+            }
+            size = Math.max(size, row + 1);
+        }
+    }
+}
@@ -2,32 +2,77 @@ package com.eyeshare.Dag.functionality;
 
 import org.apache.commons.codec.binary.StringUtils;
 import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
+import com.eyeshare.Dag.profiles.CompiledOperation;
+import com.eyeshare.Dag.profiles.CompressionLevel;
+import com.eyeshare.Dag.profiles.ReadMode;
+
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 
 
 /**
  * Created by Dag O.B.H on 2023.18.04.
  * <p>This class is responsible for handling the Excel files and contains methods for formatting and data transfer.</p>
+ * <p>Saving the output closes the handler. A handler that is not saved, because an operation or the save failed, must be
+ * closed to release the source file, the streaming reader and the temp files of a streamed output.</p>
  */
-public class ExcelHandler {
+public class ExcelHandler implements AutoCloseable {
+    // .xlsx sources larger than this are read with the streaming reader when the read mode is AUTO
+    private static final long STREAMING_THRESHOLD_BYTES = 10L * 1024 * 1024;
+    // Number of consecutive empty rows that marks the end of the data in copySplitRow
+    private static final int END_OF_DATA_EMPTY_ROWS = 10;
+    // Rows a streamed column copy holds back before it reads the sheet once more to find where each column ends
+    private static final int MAX_HELD_BACK_ROWS = 10_000;
+    // Outputs are written to ".<name>.<random>.tmp" in the output folder before they are renamed into place
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
     private Workbook source;
+    private StreamingSourceReader streamingSource;
+    // Set when the source sheets are read into columns, see ReadMode.COLUMNAR
+    private Map<Integer, ColumnarSheet> columnarSheets;
     private Workbook template;
     private Workbook output;
+    // Bytes of the cached template the output was created from, the parts no operation touched are copied from them on save
+    private byte[] templateBytes;
+    // Output sheets written by the operations
+    private final BitSet writtenSheets = new BitSet();
+    private CompressionLevel compressionLevel = CompressionLevel.DEFAULT;
+    private CellStyleCache styleCache;
+    // Counters reported by the batch front ends
+    private long rowsWritten;
+    private long cellsCopied;
+    // Last row of every template sheet when the output is streamed, rows up to it live in the template and are written in place
+    private int[] templateLastRows;
+    // Occupancy index of every source sheet read so far, built on first use
+    private final Map<Integer, SheetOccupancy> occupancies = new HashMap<>();
+    // Columns read from every source sheet when it is streamed, sheets without an entry are read in full
+    private final Map<Integer, BitSet> columnProjections = new HashMap<>();
+    private boolean closed;
 
 
     // Constructors
@@ -48,20 +93,58 @@ public class ExcelHandler {
      * @throws IOException if the file cannot be found.
      */
     public ExcelHandler(String sourceFilePath, String templateFilePath) throws IOException {
+        this(sourceFilePath, templateFilePath, ReadMode.AUTO, 0);
+    }
+
+    /**
+     * Constructor for a new ExcelHandler object.
+     * @param sourceFilePath The path to the source file to be loaded.
+     * @param templateFilePath The path to the template file to be loaded.
+     * @param readMode How the source file is read, see {@link ReadMode}.
+     * @param outputRowWindow Number of output rows kept in memory per sheet before they are flushed to temp storage, 0 keeps the whole output in memory.
+     * @throws IOException if the file cannot be found.
+     */
+    public ExcelHandler(String sourceFilePath, String templateFilePath, ReadMode readMode, int outputRowWindow) throws IOException {
+        this(sourceFilePath, templateFilePath, readMode, outputRowWindow, null);
+    }
+
+    /**
+     * Constructor for a new ExcelHandler object.
+     * @param sourceFilePath The path to the source file to be loaded.
+     * @param templateFilePath The path to the template file to be loaded.
+     * @param readMode How the source file is read, see {@link ReadMode}.
+     * @param outputRowWindow Number of output rows kept in memory per sheet before they are flushed to temp storage, 0 keeps the whole output in memory.
+     * @param sourceSheets The indexes of the only source sheets the operations read, a loaded .xlsx source skips parsing the others. Null loads every sheet.
+     * @throws IOException if the file cannot be found.
+     */
+    public ExcelHandler(String sourceFilePath, String templateFilePath, ReadMode readMode, int outputRowWindow, int[] sourceSheets) throws IOException {
         try {
             Path sourcePath = Paths.get(sourceFilePath);
-            Path templatePath = Paths.get(System.getProperty("user.home"), ".excelreformatter", templateFilePath);
-
-            this.source = WorkbookFactory.create(Files.newInputStream(sourcePath));
-            this.template = WorkbookFactory.create(Files.newInputStream(templatePath));
+            Path templatePath = resolveTemplatePath(templateFilePath);
 
-            // Initialize the output workbook as a copy of the template workbook
-            ByteArrayOutputStream templateBytes = new ByteArrayOutputStream();
-            this.template.write(templateBytes);
-            ByteArrayInputStream outputBytes = new ByteArrayInputStream(templateBytes.toByteArray());
-            this.output = WorkbookFactory.create(outputBytes);
-        } catch (IOException e) {
-            e.printStackTrace();
+            if (useStreamingReader(sourcePath, readMode)) {
+                this.streamingSource = new StreamingSourceReader(sourceFilePath);
+                if (readMode == ReadMode.COLUMNAR) {
+                    this.columnarSheets = new HashMap<>();
+                }
+            } else if (sourceSheets != null && isXlsx(sourcePath)) {
+                this.source = PartialWorkbookLoader.open(sourcePath, sourceSheets);
+            } else {
+                try (InputStream in = Files.newInputStream(sourcePath)) {
+                    this.source = WorkbookFactory.create(in);
+                }
+            }
+            // Initialize the output workbook as a fresh copy of the cached template
+            this.templateBytes = TemplateCache.getInstance().getBytes(templatePath);
+            this.output = WorkbookFactory.create(new ByteArrayInputStream(templateBytes));
+            if (outputRowWindow > 0 && output instanceof XSSFWorkbook) {
+                streamOutput((XSSFWorkbook) output, outputRowWindow);
+            }
+            this.styleCache = new CellStyleCache(output);
+        } catch (IOException | RuntimeException e) {
+            // Nothing can be done with a half opened handler, release what was opened and let the caller report the file
+            close();
+            throw e;
         }
     }
 
@@ -85,135 +168,662 @@ public class ExcelHandler {
     }
 
 
+    /**
+     * Checks if the output workbook is streamed to temp storage instead of being kept in memory
+     * @return boolean
+     */
+    public boolean isStreamingOutput() {
+        return output instanceof SXSSFWorkbook;
+    }
+
+    /**
+     * Keeps every row of the given output sheet in memory, for operations that revisit rows out of order.
+     * Does nothing unless the output is streamed.
+     * @param dstSheet
+     */
+    public void requireRandomAccess(int dstSheet) {
+        if (isStreamingOutput()) {
+            ((SXSSFSheet) output.getSheetAt(dstSheet)).setRandomAccessWindowSize(-1);
+        }
+    }
+
+    /**
+     * Get the cache of styles cloned into the output workbook, its hit and miss counters show how many styles were added
+     * @return {@link CellStyleCache}
+     */
+    public CellStyleCache getStyleCache() {
+        return styleCache;
+    }
+
+    /**
+     * Get the number of rows created in the output workbook so far
+     * @return long rowsWritten
+     */
+    public long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    /**
+     * Get the number of cells copied into the output workbook so far
+     * @return long cellsCopied
+     */
+    public long getCellsCopied() {
+        return cellsCopied;
+    }
+
+    /**
+     * Set the compression level of the parts written fresh when the output is saved.
+     * Parts copied from the template keep their compression, and outputs that are written in full use the POI default.
+     * @param compressionLevel
+     */
+    public void setCompressionLevel(CompressionLevel compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Saves the output workbook. An output created from a template is saved by writing the sheets the operations wrote to,
+     * the styles and the shared strings, and copying everything else from the template, see {@link TemplatePassthroughWriter}.
+     * The workbook is written to a temp file next to the output, synced to disk and renamed into place, so a crash leaves
+     * either the old file or the complete new one, never a half written workbook. Temp files left behind by a crash are
+     * removed with {@link #deleteLeftoverTempFiles(Path, Set)}.
+     * @param outputFilePath
+     * @throws IOException if the file cannot be written.
+     */
     public void saveOutputWorkbook(String outputFilePath) throws IOException {
-        try (FileOutputStream fileOut = new FileOutputStream(outputFilePath)) {
-            output.write(fileOut);
+        Path outputPath = Paths.get(outputFilePath).toAbsolutePath();
+        // Not Files.createTempFile, its owner-only permissions would end up on the output
+        Path tempFile = Files.createFile(outputPath.resolveSibling(getTempFilePrefix(outputPath)
+                + Long.toHexString(ThreadLocalRandom.current().nextLong()) + TEMP_FILE_SUFFIX));
+        try {
+            try (FileOutputStream fileOut = new FileOutputStream(tempFile.toFile())) {
+                if (templateBytes != null && output instanceof XSSFWorkbook) {
+                    TemplatePassthroughWriter.write((XSSFWorkbook) output, templateBytes, writtenSheets, compressionLevel.getDeflaterLevel(), fileOut);
+                } else {
+                    output.write(fileOut);
+                }
+                fileOut.getFD().sync();
+            }
+            try {
+                Files.move(tempFile, outputPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, outputPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
         }
-        closeWorkbooks();
+        close();
     }
-    
+
+    /**
+     * Closes the source, template and output workbooks and deletes the temp files of a streamed output.
+     * Does nothing if the handler is already closed.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (streamingSource != null) {
+            streamingSource.close();
+        }
+        if (source != null) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (template != null) {
+            try {
+                template.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (output != null) {
+            try {
+                if (output instanceof SXSSFWorkbook) {
+                    ((SXSSFWorkbook) output).dispose();
+                }
+                output.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Deletes the temp files a crashed {@link #saveOutputWorkbook(String)} left behind for the given outputs
+     * @param outputFolder
+     * @param outputNames Names of the output files in the folder.
+     * @return int number of deleted files
+     * @throws IOException if the output folder cannot be listed.
+     */
+    public static int deleteLeftoverTempFiles(Path outputFolder, Set<String> outputNames) throws IOException {
+        int deleted = 0;
+        try (DirectoryStream<Path> tempFiles = Files.newDirectoryStream(outputFolder, ".*" + TEMP_FILE_SUFFIX)) {
+            for (Path tempFile : tempFiles) {
+                // ".<name>.<random>.tmp"
+                String name = tempFile.getFileName().toString();
+                int randomStart = name.lastIndexOf('.', name.length() - TEMP_FILE_SUFFIX.length() - 1);
+                if (randomStart > 1 && outputNames.contains(name.substring(1, randomStart)) && Files.deleteIfExists(tempFile)) {
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Checks if the source is read with the streaming reader instead of being loaded as a workbook
+     * @return boolean
+     */
+    public boolean isStreamingSource() {
+        return streamingSource != null;
+    }
+
+    /**
+     * Checks if the source sheets are read into a {@link ColumnarSheet} that the operations read from
+     * @return boolean
+     */
+    public boolean isColumnarSource() {
+        return columnarSheets != null;
+    }
+
+    /**
+     * Limits the columns read from a source sheet by the streaming and columnar readers to the given ones.
+     * Cells in other columns are skipped while parsing, so operations must only read the given columns of the sheet.
+     * Has no effect when the source is loaded as a workbook.
+     * @param srcSheet
+     * @param columns The 0-based indexes of the columns to read, null to read all columns.
+     */
+    public void setColumnProjection(int srcSheet, int[] columns) {
+        if (columns == null) {
+            columnProjections.remove(srcSheet);
+            return;
+        }
+        BitSet projection = new BitSet();
+        for (int col : columns) {
+            projection.set(col);
+        }
+        columnProjections.put(srcSheet, projection);
+    }
+
     public void copyRows(int srcSheet, int dstSheet, int startRow, int endRow) {
+        writtenSheets.set(dstSheet);
+        if (isColumnarSource()) {
+            columnarRows(srcSheet, dstSheet, startRow, endRow);
+            return;
+        }
+        if (isStreamingSource()) {
+            streamRows(srcSheet, dstSheet, startRow, endRow);
+            return;
+        }
         Sheet sourceSheet = source.getSheetAt(srcSheet);
         Sheet targetSheet = output.getSheetAt(dstSheet);
     
         for (int i = startRow; i <= endRow; i++) {
             Row sourceRow = sourceSheet.getRow(i);
-            Row targetRow = targetSheet.createRow(i);
+            Row targetRow = createTargetRow(targetSheet, i);
             copyRow(sourceRow, targetRow);
         }
     }
     
     public void copyColumn(int srcSheet, int srcCol, int dstSheet, int dstCol, int startRow) {
+        writtenSheets.set(dstSheet);
+        if (isColumnarSource()) {
+            columnarColumns(srcSheet, new int[] {srcCol}, dstSheet, new int[] {dstCol}, startRow);
+            return;
+        }
+        if (isStreamingSource()) {
+            streamColumn(srcSheet, srcCol, dstSheet, dstCol, startRow);
+            return;
+        }
         Sheet sourceSheet = source.getSheetAt(srcSheet);
         Sheet targetSheet = output.getSheetAt(dstSheet);
-        int lastRowNum = sourceSheet.getLastRowNum();
+        // Formatted but empty rows below the data of the column are not copied
+        int lastRowNum = getOccupancy(srcSheet).getLastNonBlankRow(srcCol);
     
         for (int i = startRow; i <= lastRowNum; i++) {
             Row sourceRow = sourceSheet.getRow(i);
-            Row targetRow = targetSheet.getRow(i);
     
             if (sourceRow != null) {
                 Cell sourceCell = sourceRow.getCell(srcCol);
-                if (targetRow == null) {
-                    targetRow = targetSheet.createRow(i);
-                }
+                Row targetRow = getOrCreateTargetRow(targetSheet, i);
                 Cell targetCell = targetRow.createCell(dstCol);
                 copyCell(sourceCell, targetCell);
             }
         }
     }
 
-    public void copySplitRow(int srcSheet, int dstSheet, int startRow, Map<Integer, Integer> colMap, boolean includeHeaders, int headerCol) {
+    /**
+     * Copies several columns between the same pair of sheets in a single row-major pass, so every source and target row
+     * is fetched once instead of once per column. This also lets streamed output write each row exactly once.
+     * Within a row the columns are copied in the given order, and every column stops at its own last row with data, so
+     * the output is the same as that of separate {@link #copyColumn} calls in that order, overlapping destinations included.
+     * @param srcSheet
+     * @param srcCols
+     * @param dstSheet
+     * @param dstCols
+     * @param startRow
+     */
+    public void copyColumns(int srcSheet, int[] srcCols, int dstSheet, int[] dstCols, int startRow) {
+        writtenSheets.set(dstSheet);
+        if (isColumnarSource()) {
+            columnarColumns(srcSheet, srcCols, dstSheet, dstCols, startRow);
+            return;
+        }
+        if (isStreamingSource()) {
+            streamColumns(srcSheet, srcCols, dstSheet, dstCols, startRow);
+            return;
+        }
         Sheet sourceSheet = source.getSheetAt(srcSheet);
         Sheet targetSheet = output.getSheetAt(dstSheet);
+        int[] lastRowNums = getLastNonBlankRows(getOccupancy(srcSheet), srcCols);
+        int lastRowNum = max(lastRowNums);
 
-        int lastSourceRow = sourceSheet.getLastRowNum();
-        int targetRowIdx = startRow;
-
-        HashMap<Integer, List<Integer>> invertedColMap = invertcolMap(colMap);
-        System.out.println(invertedColMap);
-        
-        int splits = 1;
-        int keyToSplit = 0;
-        for (int key : invertedColMap.keySet()) {
-            if (invertedColMap.get(key).size() > splits) {
-                splits = invertedColMap.get(key).size();
-                keyToSplit = key;
+        for (int i = startRow; i <= lastRowNum; i++) {
+            Row sourceRow = sourceSheet.getRow(i);
+            if (sourceRow != null) {
+                Row targetRow = getOrCreateTargetRow(targetSheet, i);
+                for (int c = 0; c < srcCols.length; c++) {
+                    if (i <= lastRowNums[c]) {
+                        Cell targetCell = targetRow.createCell(dstCols[c]);
+                        copyCell(sourceRow.getCell(srcCols[c]), targetCell);
+                    }
+                }
             }
         }
+    }
+
+    public void copySplitRow(int srcSheet, int dstSheet, int startRow, Map<Integer, Integer> colMap, boolean includeHeaders, int headerCol) {
+        copySplitRow(new CompiledOperation.CopySplitRow(srcSheet, dstSheet, startRow, colMap, includeHeaders, headerCol));
+    }
+
+    /**
+     * Copies every source row from the start row into one or more consecutive target rows, see {@link CompiledOperation.CopySplitRow}.
+     * Stops at the end of the data, which is the first run of {@value #END_OF_DATA_EMPTY_ROWS} empty rows or the empty rows
+     * at the end of the sheet, found with the {@link SheetOccupancy} of the source sheet.
+     * @param operation
+     */
+    public void copySplitRow(CompiledOperation.CopySplitRow operation) {
+        writtenSheets.set(operation.getDstSheet());
+        if (isColumnarSource()) {
+            columnarSplitRow(operation);
+            return;
+        }
+        if (isStreamingSource()) {
+            streamSplitRow(operation);
+            return;
+        }
+        Sheet sourceSheet = source.getSheetAt(operation.getSrcSheet());
+        Sheet targetSheet = output.getSheetAt(operation.getDstSheet());
+        Cell[] headerCells = operation.isIncludeHeaders() ? getHeaderCells(sourceSheet, operation) : null;
 
-        for (int i = startRow; i <= lastSourceRow; i++) {
+        int endOfData = getOccupancy(operation.getSrcSheet()).getEndOfData(operation.getStartRow(), END_OF_DATA_EMPTY_ROWS);
+        int targetRowIdx = operation.getStartRow();
+
+        for (int i = operation.getStartRow(); i < endOfData; i++) {
             Row sourceRow = sourceSheet.getRow(i);
-            if (areNextRowsEmpty(sourceSheet, i, 10)) break;
             if (sourceRow != null) {
-                for (int j = 0; j < splits; j++) {
-                    // Break loop if it exceeds the last row index or if the next rows are empty
-
-                    Row targetRow = targetSheet.createRow(targetRowIdx++);
-                    for (int key : invertedColMap.keySet()) {
-                        Cell sourceCell;
-                        if (key == keyToSplit) {
-                            sourceCell = sourceRow.getCell(invertedColMap.get(key).get(Math.min(j, invertedColMap.get(key).size() - 1)));
-                        } else {
-                            sourceCell = sourceRow.getCell(invertedColMap.get(key).get(0));
-                        }
-                        Cell targetCell = targetRow.createCell(key);
-                        copyCell(sourceCell, targetCell);
-
-                        // Copy headers
-                        if (includeHeaders && i <= lastSourceRow) {
-                            Cell headerCell = sourceSheet.getRow(0).getCell(invertedColMap.get(key).get(Math.min(j, invertedColMap.get(key).size() - 1)));
-                            Cell targetHeaderCell = targetRow.createCell(headerCol);
-                            copyCell(headerCell, targetHeaderCell);
-                        }
-                    }
-                }
+                targetRowIdx = writeSplitRows(sourceRow, headerCells, targetSheet, targetRowIdx, operation);
             }
         }
     }
 
-    //Helper methods
-    private boolean isRowEmpty(Row row) {
-        if (row == null) {
-            return true;
+    private Cell[] getHeaderCells(Sheet sourceSheet, CompiledOperation.CopySplitRow operation) {
+        Row headerRow = sourceSheet.getRow(0);
+        Cell[] headerCells = new Cell[operation.getSplits()];
+        for (int j = 0; j < headerCells.length; j++) {
+            headerCells[j] = headerRow != null ? headerRow.getCell(operation.getHeaderColumn(j)) : null;
         }
-        if (row.getLastCellNum() <= 0) {
+        return headerCells;
+    }
+
+    private int writeSplitRows(Row sourceRow, Cell[] headerCells, Sheet targetSheet, int targetRowIdx, CompiledOperation.CopySplitRow operation) {
+        int[] dstCols = operation.getDstCols();
+        for (int j = 0; j < operation.getSplits(); j++) {
+            int[] sourceColumns = operation.getSourceColumns()[j];
+            Row targetRow = createTargetRow(targetSheet, targetRowIdx++);
+            for (int k = 0; k < dstCols.length; k++) {
+                copyCell(sourceRow.getCell(sourceColumns[k]), targetRow.createCell(dstCols[k]));
+            }
+            // Copy headers
+            if (headerCells != null) {
+                copyCell(headerCells[j], targetRow.createCell(operation.getHeaderCol()));
+            }
+        }
+        return targetRowIdx;
+    }
+
+    // Streaming versions of the copy operations, fed row by row by the StreamingSourceReader
+    private void streamRows(int srcSheet, int dstSheet, int startRow, int endRow) {
+        Sheet targetSheet = output.getSheetAt(dstSheet);
+        readSourceSheet(srcSheet, sourceRow -> {
+            int i = sourceRow.getRowNum();
+            if (i > endRow) {
+                return false;
+            }
+            if (i >= startRow) {
+                Row targetRow = createTargetRow(targetSheet, i);
+                copyRow(sourceRow, targetRow);
+            }
             return true;
+        });
+    }
+
+    private void streamColumn(int srcSheet, int srcCol, int dstSheet, int dstCol, int startRow) {
+        streamColumns(srcSheet, new int[] {srcCol}, dstSheet, new int[] {dstCol}, startRow);
+    }
+
+    /**
+     * Streaming version of {@link #copyColumns}.
+     * The DOM version knows where the data of each column ends from the {@link SheetOccupancy}. Here a row is held back
+     * until every copied column had data in it or further down, then it is written whole. Rows still held back at the
+     * end of the sheet are written for the columns that had data below them only, so the rows below the last data of a
+     * column are dropped like in the DOM version. When a column ends long before the others and more than
+     * {@value #MAX_HELD_BACK_ROWS} rows pile up, the rest of the sheet is read twice instead: once to find where each
+     * column ends and once to copy it.
+     */
+    private void streamColumns(int srcSheet, int[] srcCols, int dstSheet, int[] dstCols, int startRow) {
+        Sheet targetSheet = output.getSheetAt(dstSheet);
+        int[] lastRowNums = new int[srcCols.length];
+        Arrays.fill(lastRowNums, -1);
+        ArrayDeque<StreamedRow> heldBackRows = new ArrayDeque<>();
+        readSourceSheet(srcSheet, sourceRow -> {
+            int i = sourceRow.getRowNum();
+            if (i < startRow) {
+                return true;
+            }
+            updateLastNonBlankRows(sourceRow, srcCols, lastRowNums);
+            int resolvedRow = min(lastRowNums);
+            while (!heldBackRows.isEmpty() && heldBackRows.peekFirst().getRowNum() <= resolvedRow) {
+                writeColumns(heldBackRows.pollFirst(), srcCols, targetSheet, dstCols, lastRowNums);
+            }
+            if (heldBackRows.isEmpty() && i <= resolvedRow) {
+                writeColumns(sourceRow, srcCols, targetSheet, dstCols, lastRowNums);
+                return true;
+            }
+            heldBackRows.add(sourceRow.copy());
+            return heldBackRows.size() <= MAX_HELD_BACK_ROWS;
+        });
+        if (heldBackRows.size() <= MAX_HELD_BACK_ROWS) {
+            for (StreamedRow heldBackRow : heldBackRows) {
+                writeColumns(heldBackRow, srcCols, targetSheet, dstCols, lastRowNums);
+            }
+            return;
         }
-        for (int cellNum = row.getFirstCellNum(); cellNum < row.getLastCellNum(); cellNum++) {
-            Cell cell = row.getCell(cellNum);
-            if (cell != null && cell.getCellType() != CellType.BLANK && !cell.toString().trim().isEmpty()) {
+
+        // The rows before the first held back row are written, find where each column ends and copy the rest
+        int firstHeldBackRow = heldBackRows.peekFirst().getRowNum();
+        heldBackRows.clear();
+        readSourceSheet(srcSheet, sourceRow -> {
+            if (sourceRow.getRowNum() >= firstHeldBackRow) {
+                updateLastNonBlankRows(sourceRow, srcCols, lastRowNums);
+            }
+            return true;
+        });
+        int lastRowNum = max(lastRowNums);
+        readSourceSheet(srcSheet, sourceRow -> {
+            int i = sourceRow.getRowNum();
+            if (i > lastRowNum) {
                 return false;
             }
+            if (i >= firstHeldBackRow) {
+                writeColumns(sourceRow, srcCols, targetSheet, dstCols, lastRowNums);
+            }
+            return true;
+        });
+    }
+
+    private static void updateLastNonBlankRows(StreamedRow sourceRow, int[] srcCols, int[] lastRowNums) {
+        for (int c = 0; c < srcCols.length; c++) {
+            if (!sourceRow.isBlank(srcCols[c])) {
+                lastRowNums[c] = sourceRow.getRowNum();
+            }
         }
-        return true;
     }
 
+    private void writeColumns(StreamedRow sourceRow, int[] srcCols, Sheet targetSheet, int[] dstCols, int[] lastRowNums) {
+        int i = sourceRow.getRowNum();
+        if (i > max(lastRowNums)) {
+            return;
+        }
+        Row targetRow = getOrCreateTargetRow(targetSheet, i);
+        for (int c = 0; c < srcCols.length; c++) {
+            if (i <= lastRowNums[c]) {
+                Cell targetCell = targetRow.createCell(dstCols[c]);
+                copyCell(sourceRow, srcCols[c], targetCell);
+            }
+        }
+    }
 
-    private boolean areNextRowsEmpty(Sheet sheet, int startRow, int n) {
-        for (int i = startRow; i < startRow + n && i <= sheet.getLastRowNum(); i++) {
-            Row row = sheet.getRow(i);
-            if (!isRowEmpty(row)) {
+    /**
+     * Streaming version of {@link #copySplitRow}.
+     * The DOM version finds the end of the data in the {@link SheetOccupancy} of the sheet. Here empty rows are held back
+     * until the next non-empty row shows up; if that does not happen within {@value #END_OF_DATA_EMPTY_ROWS} rows the data
+     * has ended and the held back rows are dropped, which produces the same output without random access to the sheet.
+     */
+    private void streamSplitRow(CompiledOperation.CopySplitRow operation) {
+        Sheet targetSheet = output.getSheetAt(operation.getDstSheet());
+        int startRow = operation.getStartRow();
+
+        StreamedRow[] headerRow = new StreamedRow[1];
+        List<StreamedRow> heldBackRows = new ArrayList<>();
+        int[] lastNonEmptyRow = {startRow - 1};
+        int[] targetRowIdx = {startRow};
+
+        readSourceSheet(operation.getSrcSheet(), sourceRow -> {
+            int i = sourceRow.getRowNum();
+            if (i == 0) {
+                headerRow[0] = sourceRow.copy();
+            }
+            if (i < startRow) {
+                return true;
+            }
+            if (i - lastNonEmptyRow[0] > END_OF_DATA_EMPTY_ROWS) {
                 return false;
             }
+            if (sourceRow.isEmpty()) {
+                heldBackRows.add(sourceRow.copy());
+                return true;
+            }
+            for (StreamedRow heldBackRow : heldBackRows) {
+                targetRowIdx[0] = writeSplitRows(heldBackRow, headerRow[0], targetSheet, targetRowIdx[0], operation);
+            }
+            heldBackRows.clear();
+            targetRowIdx[0] = writeSplitRows(sourceRow, headerRow[0], targetSheet, targetRowIdx[0], operation);
+            lastNonEmptyRow[0] = i;
+            return true;
+        });
+    }
+
+    private int writeSplitRows(StreamedRow sourceRow, StreamedRow headerRow, Sheet targetSheet, int targetRowIdx, CompiledOperation.CopySplitRow operation) {
+        int[] dstCols = operation.getDstCols();
+        for (int j = 0; j < operation.getSplits(); j++) {
+            int[] sourceColumns = operation.getSourceColumns()[j];
+            Row targetRow = createTargetRow(targetSheet, targetRowIdx++);
+            for (int k = 0; k < dstCols.length; k++) {
+                copyCell(sourceRow, sourceColumns[k], targetRow.createCell(dstCols[k]));
+            }
+            // Copy headers
+            if (operation.isIncludeHeaders()) {
+                Cell targetHeaderCell = targetRow.createCell(operation.getHeaderCol());
+                if (headerRow != null) {
+                    copyCell(headerRow, operation.getHeaderColumn(j), targetHeaderCell);
+                } else {
+                    targetHeaderCell.setBlank();
+                }
+            }
         }
-        return true;
+        return targetRowIdx;
+    }
+
+    // Columnar versions of the copy operations, reading the cells from the ColumnarSheet of the source sheet
+    private void columnarRows(int srcSheet, int dstSheet, int startRow, int endRow) {
+        ColumnarSheet sourceSheet = getColumnarSheet(srcSheet);
+        Sheet targetSheet = output.getSheetAt(dstSheet);
+        int lastRow = Math.min(endRow, sourceSheet.getLastRowNum());
+
+        for (int i = startRow; i <= lastRow; i++) {
+            if (sourceSheet.isRowPresent(i)) {
+                Row targetRow = createTargetRow(targetSheet, i);
+                copyRow(sourceSheet, i, targetRow);
+            }
+        }
+    }
+
+    private void columnarColumns(int srcSheet, int[] srcCols, int dstSheet, int[] dstCols, int startRow) {
+        ColumnarSheet sourceSheet = getColumnarSheet(srcSheet);
+        Sheet targetSheet = output.getSheetAt(dstSheet);
+        int[] lastRowNums = getLastNonBlankRows(sourceSheet.getOccupancy(), srcCols);
+        int lastRowNum = max(lastRowNums);
+
+        for (int i = startRow; i <= lastRowNum; i++) {
+            if (sourceSheet.isRowPresent(i)) {
+                Row targetRow = getOrCreateTargetRow(targetSheet, i);
+                for (int c = 0; c < srcCols.length; c++) {
+                    if (i <= lastRowNums[c]) {
+                        Cell targetCell = targetRow.createCell(dstCols[c]);
+                        copyCell(sourceSheet, i, srcCols[c], targetCell);
+                    }
+                }
+            }
+        }
+    }
+
+    private void columnarSplitRow(CompiledOperation.CopySplitRow operation) {
+        ColumnarSheet sourceSheet = getColumnarSheet(operation.getSrcSheet());
+        Sheet targetSheet = output.getSheetAt(operation.getDstSheet());
+        int endOfData = sourceSheet.getOccupancy().getEndOfData(operation.getStartRow(), END_OF_DATA_EMPTY_ROWS);
+        int targetRowIdx = operation.getStartRow();
+
+        for (int i = operation.getStartRow(); i < endOfData; i++) {
+            if (sourceSheet.isRowPresent(i)) {
+                targetRowIdx = writeSplitRows(sourceSheet, i, targetSheet, targetRowIdx, operation);
+            }
+        }
+    }
+
+    private int writeSplitRows(ColumnarSheet sourceSheet, int sourceRow, Sheet targetSheet, int targetRowIdx, CompiledOperation.CopySplitRow operation) {
+        int[] dstCols = operation.getDstCols();
+        for (int j = 0; j < operation.getSplits(); j++) {
+            int[] sourceColumns = operation.getSourceColumns()[j];
+            Row targetRow = createTargetRow(targetSheet, targetRowIdx++);
+            for (int k = 0; k < dstCols.length; k++) {
+                copyCell(sourceSheet, sourceRow, sourceColumns[k], targetRow.createCell(dstCols[k]));
+            }
+            // Copy headers
+            if (operation.isIncludeHeaders()) {
+                copyCell(sourceSheet, 0, operation.getHeaderColumn(j), targetRow.createCell(operation.getHeaderCol()));
+            }
+        }
+        return targetRowIdx;
+    }
+
+    private ColumnarSheet getColumnarSheet(int srcSheet) {
+        ColumnarSheet sheet = columnarSheets.get(srcSheet);
+        if (sheet == null) {
+            try {
+                sheet = ColumnarSheet.read(streamingSource, srcSheet, columnProjections.get(srcSheet));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            columnarSheets.put(srcSheet, sheet);
+        }
+        return sheet;
+    }
+
+    private void readSourceSheet(int srcSheet, StreamingSourceReader.RowHandler handler) {
+        try {
+            streamingSource.readSheet(srcSheet, columnProjections.get(srcSheet), handler);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    //Helper methods
+    private void streamOutput(XSSFWorkbook outputWorkbook, int outputRowWindow) {
+        templateLastRows = new int[outputWorkbook.getNumberOfSheets()];
+        for (int i = 0; i < templateLastRows.length; i++) {
+            Sheet sheet = outputWorkbook.getSheetAt(i);
+            templateLastRows[i] = sheet.getPhysicalNumberOfRows() > 0 ? sheet.getLastRowNum() : -1;
+        }
+        this.output = new SXSSFWorkbook(outputWorkbook, outputRowWindow);
+    }
+
+    private static int[] getLastNonBlankRows(SheetOccupancy occupancy, int[] cols) {
+        int[] lastRowNums = new int[cols.length];
+        for (int c = 0; c < cols.length; c++) {
+            lastRowNums[c] = occupancy.getLastNonBlankRow(cols[c]);
+        }
+        return lastRowNums;
+    }
+
+    private static int max(int[] values) {
+        int max = -1;
+        for (int value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+    private static int min(int[] values) {
+        int min = Integer.MAX_VALUE;
+        for (int value : values) {
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+
+    /**
+     * Returns the sheet that holds the given target row. When the output is streamed, rows that already exist in the
+     * template cannot be recreated through SXSSF, so they are written in place on the underlying template sheet.
+     */
+    private Sheet targetRowHolder(Sheet targetSheet, int rowIdx) {
+        if (templateLastRows != null) {
+            int sheetIndex = output.getSheetIndex(targetSheet);
+            if (rowIdx <= templateLastRows[sheetIndex]) {
+                return ((SXSSFWorkbook) output).getXSSFWorkbook().getSheetAt(sheetIndex);
+            }
+        }
+        return targetSheet;
+    }
+
+    private Row getOrCreateTargetRow(Sheet targetSheet, int rowIdx) {
+        Sheet holder = targetRowHolder(targetSheet, rowIdx);
+        Row targetRow = holder.getRow(rowIdx);
+        if (targetRow == null) {
+            targetRow = holder.createRow(rowIdx);
+            rowsWritten++;
+        }
+        return targetRow;
+    }
+
+    private Row createTargetRow(Sheet targetSheet, int rowIdx) {
+        rowsWritten++;
+        return targetRowHolder(targetSheet, rowIdx).createRow(rowIdx);
+    }
+
+    private SheetOccupancy getOccupancy(int srcSheet) {
+        if (isColumnarSource()) {
+            return getColumnarSheet(srcSheet).getOccupancy();
+        }
+        return occupancies.computeIfAbsent(srcSheet, sheet -> SheetOccupancy.build(source.getSheetAt(sheet)));
     }
 
 
     private void copyCell(Cell sourceCell, Cell destinationCell) {
+        cellsCopied++;
         if (sourceCell == null) {
             destinationCell.setBlank();
             return;
         }
     
         CellType cellType = sourceCell.getCellType();
-        
-        Workbook destinationWorkbook = destinationCell.getSheet().getWorkbook();
-        CellStyle newStyle = destinationWorkbook.createCellStyle();
-        newStyle.cloneStyleFrom(sourceCell.getCellStyle());
-        newStyle.setDataFormat(destinationWorkbook.createDataFormat().getFormat(sourceCell.getCellStyle().getDataFormatString()));
-        
+        CellStyle newStyle = styleCache.getStyle(source, sourceCell.getCellStyle());
     
         switch (cellType) {
             case STRING:
@@ -246,6 +856,84 @@ public class ExcelHandler {
     
 
 
+    private void copyCell(StreamedRow sourceRow, int col, Cell destinationCell) {
+        cellsCopied++;
+        CellType cellType = sourceRow.getCellType(col);
+        if (cellType == null) {
+            destinationCell.setBlank();
+            return;
+        }
+
+        CellStyle newStyle = styleCache.getStyle(streamingSource, sourceRow.getCellStyle(col));
+
+        switch (cellType) {
+            case STRING:
+                destinationCell.setCellValue(sourceRow.getStringCellValue(col));
+                break;
+            case NUMERIC:
+                destinationCell.setCellStyle(newStyle);
+                if (sourceRow.isCellDateFormatted(col)) {
+                    destinationCell.setCellValue(sourceRow.getDateCellValue(col));
+                } else {
+                    destinationCell.setCellValue(sourceRow.getNumericCellValue(col));
+                }
+                break;
+            case BOOLEAN:
+                destinationCell.setCellStyle(newStyle);
+                destinationCell.setCellValue(sourceRow.getBooleanCellValue(col));
+                break;
+            case FORMULA:
+                destinationCell.setCellStyle(newStyle);
+                destinationCell.setCellFormula(sourceRow.getCellFormula(col));
+                break;
+            case BLANK:
+                destinationCell.setCellStyle(newStyle);
+                destinationCell.setBlank();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void copyCell(ColumnarSheet sourceSheet, int row, int col, Cell destinationCell) {
+        cellsCopied++;
+        CellType cellType = sourceSheet.getCellType(row, col);
+        if (cellType == null) {
+            destinationCell.setBlank();
+            return;
+        }
+
+        CellStyle newStyle = styleCache.getStyle(streamingSource, sourceSheet.getCellStyle(row, col));
+
+        switch (cellType) {
+            case STRING:
+                destinationCell.setCellValue(sourceSheet.getStringCellValue(row, col));
+                break;
+            case NUMERIC:
+                destinationCell.setCellStyle(newStyle);
+                if (sourceSheet.isCellDateFormatted(row, col)) {
+                    destinationCell.setCellValue(sourceSheet.getDateCellValue(row, col));
+                } else {
+                    destinationCell.setCellValue(sourceSheet.getNumericCellValue(row, col));
+                }
+                break;
+            case BOOLEAN:
+                destinationCell.setCellStyle(newStyle);
+                destinationCell.setCellValue(sourceSheet.getBooleanCellValue(row, col));
+                break;
+            case FORMULA:
+                destinationCell.setCellStyle(newStyle);
+                destinationCell.setCellFormula(sourceSheet.getCellFormula(row, col));
+                break;
+            case BLANK:
+                destinationCell.setCellStyle(newStyle);
+                destinationCell.setBlank();
+                break;
+            default:
+                break;
+        }
+    }
+
     private void copyRow(Row sourceRow, Row destinationRow) {
         for (int i = 0; i < sourceRow.getLastCellNum(); i++) {
             Cell sourceCell = sourceRow.getCell(i);
@@ -255,40 +943,55 @@ public class ExcelHandler {
         }
     }
 
-    private HashMap<Integer, List<Integer>> invertcolMap(Map<Integer, Integer> colMap) {
-        HashMap<Integer, List<Integer>> invertedMap = new HashMap<>();
-        for (Map.Entry<Integer, Integer> entry : colMap.entrySet()) {
-            int srcCol = entry.getKey();
-            int dstCol = entry.getValue();
-            invertedMap.putIfAbsent(dstCol, new ArrayList<>());
-            invertedMap.get(dstCol).add(srcCol);
+    private void copyRow(StreamedRow sourceRow, Row destinationRow) {
+        for (int i = 0; i < sourceRow.getLastCellNum(); i++) {
+            if (sourceRow.getCellType(i) == null) continue;
+            Cell destinationCell = destinationRow.createCell(i);
+            copyCell(sourceRow, i, destinationCell);
         }
-        return invertedMap;
     }
 
-
-    private void closeWorkbooks() {
-        if (source != null) {
-            try {
-                source.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    private void copyRow(ColumnarSheet sourceSheet, int row, Row destinationRow) {
+        for (int i = 0; i < sourceSheet.getColumnCount(); i++) {
+            if (sourceSheet.getCellType(row, i) == null) continue;
+            Cell destinationCell = destinationRow.createCell(i);
+            copyCell(sourceSheet, row, i, destinationCell);
         }
-        if (template != null) {
-            try {
-                template.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    }
+
+    /**
+     * Checks if a source file is read with the streaming reader in the given read mode
+     */
+    static boolean useStreamingReader(Path sourcePath, ReadMode readMode) throws IOException {
+        // The streaming reader only understands the OOXML format
+        if (!isXlsx(sourcePath)) {
+            return false;
         }
-        if (output != null) {
-            try {
-                output.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        switch (readMode) {
+            case STREAMING:
+            case COLUMNAR:
+                return true;
+            case DOM:
+                return false;
+            case AUTO:
+            default:
+                return Files.size(sourcePath) > STREAMING_THRESHOLD_BYTES;
         }
     }
 
+    /**
+     * Resolves the template path of a profile, which is relative to the application folder in the user's home
+     */
+    static Path resolveTemplatePath(String templateFilePath) {
+        return Paths.get(System.getProperty("user.home"), ".excelreformatter", templateFilePath);
+    }
+
+    private static String getTempFilePrefix(Path outputPath) {
+        return "." + outputPath.getFileName() + ".";
+    }
+
+    private static boolean isXlsx(Path sourcePath) {
+        return sourcePath.getFileName().toString().toLowerCase().endsWith(".xlsx");
+    }
+
 }
\ No newline at end of file
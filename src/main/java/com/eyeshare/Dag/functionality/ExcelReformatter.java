@@ -1,77 +1,100 @@
 package com.eyeshare.Dag.functionality;
 
-import com.eyeshare.Dag.profiles.Operation;
-
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
 
-import com.eyeshare.Dag.profiles.OpType;
+import com.eyeshare.Dag.profiles.CompiledOperation;
+import com.eyeshare.Dag.profiles.CompiledProfile;
 import com.eyeshare.Dag.profiles.Profile;
+import com.eyeshare.Dag.profiles.ReadMode;
 
 public class ExcelReformatter extends ExcelHandler {
 
-    private Profile profile;
+    private CompiledProfile profile;
 
     public ExcelReformatter(String sourceFilePath, Profile profile) throws IOException {
-        super(sourceFilePath, profile.getTemplatePath());
+        this(sourceFilePath, profile.getCompiledProfile());
+    }
+
+    public ExcelReformatter(String sourceFilePath, CompiledProfile profile) throws IOException {
+        this(sourceFilePath, profile, profile.getReadMode(), profile.getOutputRowWindow());
+    }
+
+    /**
+     * Opens the source with another read mode and output window than the profile's, see {@link HeapAdmission}
+     */
+    public ExcelReformatter(String sourceFilePath, CompiledProfile profile, ReadMode readMode, int outputRowWindow) throws IOException {
+        super(sourceFilePath, profile.getTemplatePath(), readMode, outputRowWindow, profile.getSourceSheets());
         this.profile = profile;
+        setCompressionLevel(profile.getCompressionLevel());
+        // Streamed source sheets are parsed for the columns the operations read only
+        for (int srcSheet : profile.getSourceSheets()) {
+            setColumnProjection(srcSheet, profile.getSourceColumns(srcSheet));
+        }
     }
 
 
     /**
      * Applies the given profile to the source workbook using the template workbook if it is provided.
+     * Column copies between the same pair of sheets run fused in one pass, see {@link CompiledProfile#getExecutionPlan()}.
      * @param profile
      */
     public void applyProfile() {
-        for (Operation<?> operation : profile.getOperations()) {
-            OpType type = operation.getType();
-            Map<String, ?> parameters = operation.getParameters();
-    
-            System.out.println("Operation type: " + type);
-            System.out.println("Parameters: " + parameters);
-    
-            switch (type) {
-                case COPY_ROWS:
-                    copyRows(((Double) parameters.get("srcSheet")).intValue(),
-                    ((Double) parameters.get("dstSheet")).intValue(),
-                    ((Double) parameters.get("startRow")).intValue(),
-                    ((Double) parameters.get("numRows")).intValue());
-                    break;
-                case COPY_COLUMN:
-                    copyColumn(((Double) parameters.get("srcSheet")).intValue(),
-                    ((Double) parameters.get("srcCol")).intValue(),
-                    ((Double) parameters.get("dstSheet")).intValue(), 
-                    ((Double) parameters.get("dstCol")).intValue(),
-                    1);
+        if (isStreamingOutput()) {
+            applyProfileToStreamingOutput();
+            return;
+        }
+        for (CompiledOperation operation : profile.getExecutionPlan()) {
+            applyOperation(operation);
+        }
+    }
+
+    /**
+     * Applies the profile when the output rows are flushed as they are produced, so every output row must be written exactly once.
+     * Operations are grouped by destination sheet. A sheet written by a single operation of the execution plan (including fused
+     * column copies) is already produced in row order, any other combination revisits rows and keeps that sheet in memory.
+     */
+    private void applyProfileToStreamingOutput() {
+        Map<Integer, List<CompiledOperation>> operationsByDstSheet = new LinkedHashMap<>();
+        for (CompiledOperation operation : profile.getExecutionPlan()) {
+            operationsByDstSheet.computeIfAbsent(operation.getDstSheet(), k -> new ArrayList<>()).add(operation);
+        }
+
+        for (Map.Entry<Integer, List<CompiledOperation>> entry : operationsByDstSheet.entrySet()) {
+            List<CompiledOperation> operations = entry.getValue();
+            if (operations.size() > 1) {
+                requireRandomAccess(entry.getKey());
+            }
+            for (CompiledOperation operation : operations) {
+                applyOperation(operation);
+            }
+        }
+    }
+
+    private void applyOperation(CompiledOperation operation) {
+        switch (operation.getType()) {
+            case COPY_ROWS:
+                CompiledOperation.CopyRows copyRows = (CompiledOperation.CopyRows) operation;
+                copyRows(copyRows.getSrcSheet(), copyRows.getDstSheet(), copyRows.getStartRow(), copyRows.getEndRow());
+                break;
+            case COPY_COLUMN:
+                if (operation instanceof CompiledOperation.CopyColumns) {
+                    CompiledOperation.CopyColumns copyColumns = (CompiledOperation.CopyColumns) operation;
+                    copyColumns(copyColumns.getSrcSheet(), copyColumns.getSrcCols(), copyColumns.getDstSheet(), copyColumns.getDstCols(),
+                            copyColumns.getStartRow());
                     break;
-                case COPY_SPLIT_ROW:
-                System.out.println("colMap: " + parameters.get("colMap"));
-                Map<?, ?> rawMap = (Map<?, ?>) parameters.get("colMap");
-                
-                Map<Integer, Integer> integerMap = new HashMap<>();
-                if (rawMap != null) {
-                    for (Map.Entry<?, ?> entry : rawMap.entrySet()) {
-                        System.out.println("Key: " + entry.getKey() + ", Value: " + entry.getValue());
-                        System.out.println("Key type: " + entry.getKey().getClass() + ", Value type: " + entry.getValue().getClass());
-                        integerMap.put(((Number) entry.getKey()).intValue(), ((Number) entry.getValue()).intValue());
-                    }
                 }
-
-                
-                copySplitRow(((Number) parameters.get("srcSheet")).intValue(),
-                        ((Number) parameters.get("dstSheet")).intValue(),
-                        ((Number) parameters.get("startRow")).intValue(),
-                        integerMap,
-                        (boolean) parameters.get("includeHeaders"),
-                        ((Number) parameters.get("headerCol")).intValue());
+                CompiledOperation.CopyColumn copyColumn = (CompiledOperation.CopyColumn) operation;
+                copyColumn(copyColumn.getSrcSheet(), copyColumn.getSrcCol(), copyColumn.getDstSheet(), copyColumn.getDstCol(),
+                        copyColumn.getStartRow());
                 break;
-                // Add other operation types here
-            }
+            case COPY_SPLIT_ROW:
+                copySplitRow((CompiledOperation.CopySplitRow) operation);
+                break;
+            // Add other operation types here
         }
     }
 }
-    
-    
-    
-
@@ -0,0 +1,125 @@
+package com.eyeshare.Dag.functionality;
+
+
+/**
+ * <p>Shifts the relative cell references of an A1-style formula, the way Excel derives the formula of every cell that
+ * shares the formula of a master cell (&lt;f t="shared"/&gt;).</p>
+ * <p>References with a $ keep that part. Text in string literals and quoted sheet names is left alone, and names that
+ * are followed by "(" are functions. Whole column (A:C) and whole row (1:3) ranges are shifted in their one dimension.</p>
+ */
+class FormulaReferenceShifter {
+    private static final int MAX_COLUMN = 16384;
+
+    private FormulaReferenceShifter() {
+    }
+
+    /**
+     * Shifts the formula of the master cell to a cell the given number of rows and columns away
+     * @param formula The formula of the master cell, without the leading "=".
+     * @param rowDelta
+     * @param colDelta
+     * @return String the formula of the other cell
+     */
+    static String shift(String formula, int rowDelta, int colDelta) {
+        if (rowDelta == 0 && colDelta == 0) {
+            return formula;
+        }
+        StringBuilder shifted = new StringBuilder(formula.length() + 8);
+        int length = formula.length();
+        int i = 0;
+        while (i < length) {
+            char c = formula.charAt(i);
+            if (c == '"' || c == '\'') {
+                // String literal or quoted sheet name, a doubled quote is an escaped one
+                int end = i + 1;
+                while (end < length) {
+                    if (formula.charAt(end) == c) {
+                        if (end + 1 < length && formula.charAt(end + 1) == c) {
+                            end += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    end++;
+                }
+                end = Math.min(end + 1, length);
+                shifted.append(formula, i, end);
+                i = end;
+            } else if (isTokenChar(c)) {
+                int end = i;
+                while (end < length && isTokenChar(formula.charAt(end))) {
+                    end++;
+                }
+                String token = formula.substring(i, end);
+                boolean function = end < length && formula.charAt(end) == '(';
+                boolean inRange = (i > 0 && formula.charAt(i - 1) == ':') || (end < length && formula.charAt(end) == ':');
+                shifted.append(function ? token : shiftToken(token, inRange, rowDelta, colDelta));
+                i = end;
+            } else {
+                shifted.append(c);
+                i++;
+            }
+        }
+        return shifted.toString();
+    }
+
+
+    //Helper methods
+    private static boolean isTokenChar(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '$' || c == '_' || c == '.';
+    }
+
+    private static String shiftToken(String token, boolean inRange, int rowDelta, int colDelta) {
+        int length = token.length();
+        int i = 0;
+        boolean absoluteCol = i < length && token.charAt(i) == '$';
+        if (absoluteCol) i++;
+        int letterStart = i;
+        while (i < length && token.charAt(i) >= 'A' && token.charAt(i) <= 'Z') i++;
+        int letters = i - letterStart;
+        boolean absoluteRow = i < length && token.charAt(i) == '$';
+        if (absoluteRow) i++;
+        int digitStart = i;
+        while (i < length && token.charAt(i) >= '0' && token.charAt(i) <= '9') i++;
+        int digits = i - digitStart;
+        if (i != length || letters > 3 || (letters == 0 && digits == 0)) {
+            return token;
+        }
+        if (letters > 0 && digits > 0) {
+            int column = absoluteCol ? columnNumber(token, letterStart, letters) : columnNumber(token, letterStart, letters) + colDelta;
+            int row = Integer.parseInt(token.substring(digitStart)) + (absoluteRow ? 0 : rowDelta);
+            if (column < 1 || column > MAX_COLUMN || row < 1) {
+                return "#REF!";
+            }
+            return (absoluteCol ? "$" : "") + columnLetters(column) + (absoluteRow ? "$" : "") + row;
+        }
+        if (!inRange || absoluteRow && letters > 0) {
+            // A name or a number, not a reference
+            return token;
+        }
+        if (letters > 0) {
+            int column = columnNumber(token, letterStart, letters) + (absoluteCol ? 0 : colDelta);
+            return column < 1 || column > MAX_COLUMN ? "#REF!" : (absoluteCol ? "$" : "") + columnLetters(column);
+        }
+        int row = Integer.parseInt(token.substring(digitStart)) + (absoluteCol ? 0 : rowDelta);
+        return row < 1 ? "#REF!" : (absoluteCol ? "$" : "") + row;
+    }
+
+    private static int columnNumber(String token, int start, int letters) {
+        int number = 0;
+        for (int i = start; i < start + letters; i++) {
+            number = number * 26 + (token.charAt(i) - 'A' + 1);
+        }
+        return number;
+    }
+
+    private static String columnLetters(int column) {
+        StringBuilder letters = new StringBuilder();
+        while (column > 0) {
+            int remainder = (column - 1) % 26;
+            letters.insert(0, (char) ('A' + remainder));
+            column = (column - 1) / 26;
+        }
+        return letters.toString();
+    }
+}
@@ -0,0 +1,204 @@
+package com.eyeshare.Dag.functionality;
+
+import com.eyeshare.Dag.profiles.CompiledProfile;
+import com.eyeshare.Dag.profiles.ReadMode;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+
+
+/**
+ * <p>Admission control that keeps concurrent conversions within a heap budget, so several big files landing together
+ * wait for each other instead of ending in an OutOfMemoryError.</p>
+ * <p>Before a file is opened its heap footprint is estimated from its {@link SourceFootprint}: the cell count from the
+ * dimension of the sheets the profile reads and the unique string count of the shared string table. A
+ * conversion only starts once its estimate fits in what is left of the budget, the others wait in arrival order. A file
+ * whose estimate does not fit in the whole budget is routed to the streaming reader and a windowed output instead, and
+ * runs alone if it still does not fit.</p>
+ * <p>The estimates are calibrated against POI 5: an XSSF cell costs about 640 bytes when the source is loaded as a
+ * workbook and about 450 bytes when the output is kept in memory.</p>
+ */
+public class HeapAdmission {
+    private static final long DOM_CELL_BYTES = 640;
+    private static final long OUTPUT_CELL_BYTES = 450;
+    private static final long COLUMNAR_CELL_BYTES = 8;
+    private static final long SHARED_STRING_BYTES = 200;
+    // Template, styles and buffers of one conversion
+    private static final long BASE_BYTES = 16L * 1024 * 1024;
+    // Output rows kept in memory per sheet when a file is routed to the windowed output
+    static final int ROUTED_OUTPUT_ROW_WINDOW = 1000;
+
+    private final long budgetBytes;
+    // One permit per KiB of the budget
+    private final Semaphore permits;
+
+
+    /**
+     * Constructor for a new HeapAdmission object.
+     * @param budgetBytes Heap the admitted conversions may use together, values below 1 use {@link #getDefaultBudget()}.
+     */
+    public HeapAdmission(long budgetBytes) {
+        this.budgetBytes = budgetBytes > 0 ? budgetBytes : getDefaultBudget();
+        this.permits = new Semaphore(toPermits(this.budgetBytes), true);
+    }
+
+    /**
+     * Get the default budget: three quarters of the maximum heap, the rest is left to the JVM and the caller
+     * @return long bytes
+     */
+    public static long getDefaultBudget() {
+        return Runtime.getRuntime().maxMemory() / 4 * 3;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * Get the part of the budget not held by admitted conversions
+     * @return long bytes
+     */
+    public long getAvailableBytes() {
+        return (long) permits.availablePermits() * 1024;
+    }
+
+    /**
+     * Waits until the given file fits in the budget and admits it, routing it to the streaming path if it can never fit
+     * as configured in the profile. The returned permit must be closed when the conversion is done.
+     * @param inputFile
+     * @param profile
+     * @return Permit holding the estimate of the file
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public Permit admit(File inputFile, CompiledProfile profile) throws InterruptedException {
+        return admit(inputFile, profile, SourceFootprint.of(inputFile, profile.getSourceSheets()));
+    }
+
+    /**
+     * Same as {@link #admit(File, CompiledProfile)} with a footprint that was already measured, so the file is not opened again
+     * @param inputFile
+     * @param profile
+     * @param footprint The footprint of the file for the sheets the profile reads.
+     * @return Permit holding the estimate of the file
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public Permit admit(File inputFile, CompiledProfile profile, SourceFootprint footprint) throws InterruptedException {
+        ReadMode readMode = profile.getReadMode();
+        int outputRowWindow = profile.getOutputRowWindow();
+        long estimate = estimate(footprint, inputFile, readMode, outputRowWindow);
+        if (estimate > budgetBytes && footprint.isXlsx()) {
+            if (!isStreamingRead(readMode)) {
+                readMode = ReadMode.STREAMING;
+            }
+            if (outputRowWindow <= 0) {
+                outputRowWindow = ROUTED_OUTPUT_ROW_WINDOW;
+            }
+            long routed = estimate(footprint, inputFile, readMode, outputRowWindow);
+            System.out.println("Routing " + inputFile.getName() + " to the streaming path, it needs about " + toMegabytes(estimate)
+                    + " MB of the " + toMegabytes(budgetBytes) + " MB heap budget, " + toMegabytes(routed) + " MB when streamed");
+            estimate = routed;
+        }
+        // Files that are too big even when streamed run alone
+        int needed = Math.min(toPermits(estimate), toPermits(budgetBytes));
+        permits.acquire(needed);
+        return new Permit(needed, estimate, readMode, outputRowWindow);
+    }
+
+
+    //Helper methods
+    private static long estimate(SourceFootprint footprint, File inputFile, ReadMode readMode, int outputRowWindow) {
+        boolean streamed;
+        try {
+            streamed = ExcelHandler.useStreamingReader(inputFile.toPath(), readMode);
+        } catch (IOException e) {
+            streamed = false;
+        }
+        long cells = footprint.getCells();
+        long bytes = BASE_BYTES;
+        if (!streamed) {
+            bytes += cells * DOM_CELL_BYTES + footprint.getSharedStrings() * SHARED_STRING_BYTES;
+        } else {
+            // The streaming reader keeps the shared strings as Java strings
+            bytes += footprint.getSharedStringBytes() * 2 + footprint.getSharedStrings() * 48;
+            if (readMode == ReadMode.COLUMNAR) {
+                bytes += cells * COLUMNAR_CELL_BYTES;
+            }
+        }
+        // The output has at most as many cells as the source, a windowed output keeps a few rows per sheet
+        if (outputRowWindow <= 0) {
+            bytes += cells * OUTPUT_CELL_BYTES;
+        }
+        return bytes;
+    }
+
+    private static boolean isStreamingRead(ReadMode readMode) {
+        return readMode == ReadMode.STREAMING || readMode == ReadMode.COLUMNAR;
+    }
+
+    private static int toPermits(long bytes) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, (bytes + 1023) / 1024));
+    }
+
+    private static long toMegabytes(long bytes) {
+        return bytes / (1024 * 1024);
+    }
+
+
+    /**
+     * The share of the budget an admitted conversion holds, and how it has to read and write the file
+     */
+    public class Permit implements AutoCloseable {
+        private final int held;
+        private final long estimatedBytes;
+        private final ReadMode readMode;
+        private final int outputRowWindow;
+        private boolean released;
+
+        private Permit(int held, long estimatedBytes, ReadMode readMode, int outputRowWindow) {
+            this.held = held;
+            this.estimatedBytes = estimatedBytes;
+            this.readMode = readMode;
+            this.outputRowWindow = outputRowWindow;
+        }
+
+        public long getEstimatedBytes() {
+            return estimatedBytes;
+        }
+
+        /**
+         * Get the read mode the file was admitted with, the profile's unless the file was routed to the streaming path
+         * @return ReadMode
+         */
+        public ReadMode getReadMode() {
+            return readMode;
+        }
+
+        public int getOutputRowWindow() {
+            return outputRowWindow;
+        }
+
+        /**
+         * Opens the file for conversion with the read mode and output window it was admitted with
+         * @param inputFile
+         * @param profile
+         * @return ExcelReformatter
+         * @throws IOException if the file cannot be read.
+         */
+        public ExcelReformatter open(File inputFile, CompiledProfile profile) throws IOException {
+            return new ExcelReformatter(inputFile.getAbsolutePath(), profile, readMode, outputRowWindow);
+        }
+
+        /**
+         * Gives the share back to the budget
+         */
+        @Override
+        public synchronized void close() {
+            if (!released) {
+                released = true;
+                permits.release(held);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.eyeshare.Dag.functionality;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+
+/**
+ * <p>Orders the files of a batch by their estimated cost, so the biggest files start first and the workers finish at
+ * about the same time instead of one huge file running alone at the end (longest processing time first).</p>
+ * <p>The cost of an .xlsx file is estimated from its {@link SourceFootprint} without parsing anything: the uncompressed
+ * sizes of the sheets the profile reads and of the shared strings, which have to be parsed, plus the share of the file
+ * that holds them, which has to be inflated. Files that are not .xlsx packages (.xls) cost their size.</p>
+ */
+public class JobScheduler {
+
+    private JobScheduler() {
+    }
+
+    /**
+     * Estimates the cost of processing a file in bytes of work
+     * @param footprint The footprint of the file for the sheets the profile reads.
+     * @return long cost
+     */
+    public static long estimateCost(SourceFootprint footprint) {
+        if (!footprint.isXlsx()) {
+            return footprint.getFileBytes();
+        }
+        long parsed = footprint.getReadSheetBytes() + footprint.getSharedStringBytes();
+        long all = footprint.getAllSheetBytes() + footprint.getSharedStringBytes();
+        // The compressed parts are about as big relative to each other as the uncompressed ones
+        long inflated = all > 0 ? Math.round(footprint.getFileBytes() * ((double) parsed / all)) : footprint.getFileBytes();
+        return inflated + parsed;
+    }
+
+    /**
+     * Get the positions of the given jobs, most expensive first. Jobs of equal cost keep their order.
+     * @param costs The cost of every job.
+     * @return List of job positions in the order they should start
+     */
+    public static List<Integer> longestFirst(long[] costs) {
+        List<Integer> order = new ArrayList<>(costs.length);
+        for (int i = 0; i < costs.length; i++) {
+            order.add(i);
+        }
+        order.sort((a, b) -> Long.compare(costs[b], costs[a]));
+        return order;
+    }
+
+    /**
+     * Predicts the wall time of running the jobs in the given order on a number of workers, each job taking its cost
+     * times the given time per cost unit and starting on the first worker that becomes free
+     * @param costs The cost of every job.
+     * @param order The positions of the jobs in the order they start.
+     * @param workers
+     * @param nanosPerCost Time one unit of cost takes.
+     * @return long predicted wall time in nanoseconds
+     */
+    public static long predictMakespan(long[] costs, List<Integer> order, int workers, double nanosPerCost) {
+        PriorityQueue<Long> workerFreeAt = new PriorityQueue<>();
+        for (int i = 0; i < Math.max(workers, 1); i++) {
+            workerFreeAt.add(0L);
+        }
+        long makespan = 0;
+        for (int job : order) {
+            long end = workerFreeAt.poll() + Math.round(costs[job] * nanosPerCost);
+            workerFreeAt.add(end);
+            makespan = Math.max(makespan, end);
+        }
+        return makespan;
+    }
+}
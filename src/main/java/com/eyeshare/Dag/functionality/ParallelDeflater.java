@@ -0,0 +1,84 @@
+package com.eyeshare.Dag.functionality;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
+
+
+/**
+ * <p>Compresses a buffer into a raw DEFLATE stream using several threads, the way pigz does.</p>
+ * <p>The input is cut into chunks that are compressed concurrently. Each chunk is primed with the last 32 KiB before it as
+ * dictionary, so matches can still reach back over the chunk boundary, and ends with a sync flush so the compressed
+ * chunks can simply be concatenated in order. Only the last chunk finishes the stream. The result is a single valid
+ * DEFLATE stream, about as small as one compressed on a single thread.</p>
+ */
+public class ParallelDeflater {
+    // Size of the chunks compressed independently, buffers up to two chunks are compressed on the calling thread
+    private static final int CHUNK_SIZE = 128 * 1024;
+    // Window of the DEFLATE format, the furthest a match can reach back
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private ParallelDeflater() {
+    }
+
+    /**
+     * Compresses the first length bytes of the data
+     * @param data
+     * @param length
+     * @param level The {@link Deflater} compression level.
+     * @param executor Runs the chunks.
+     * @return byte[] the raw DEFLATE stream, without zlib header or trailer
+     */
+    public static byte[] deflate(byte[] data, int length, int level, Executor executor) {
+        if (length <= 2 * CHUNK_SIZE) {
+            return deflateChunk(data, 0, length, level, true);
+        }
+        List<CompletableFuture<byte[]>> chunks = new ArrayList<>();
+        for (int start = 0; start < length; start += CHUNK_SIZE) {
+            int chunkStart = start;
+            int chunkLength = Math.min(CHUNK_SIZE, length - start);
+            boolean last = chunkStart + chunkLength == length;
+            chunks.add(CompletableFuture.supplyAsync(() -> deflateChunk(data, chunkStart, chunkLength, level, last), executor));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length / 4);
+        for (CompletableFuture<byte[]> chunk : chunks) {
+            out.writeBytes(chunk.join());
+        }
+        return out.toByteArray();
+    }
+
+
+    //Helper methods
+    private static byte[] deflateChunk(byte[] data, int start, int length, int level, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (start > 0) {
+                int dictionaryStart = Math.max(0, start - DICTIONARY_SIZE);
+                deflater.setDictionary(data, dictionaryStart, start - dictionaryStart);
+            }
+            deflater.setInput(data, start, length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length / 4 + 64);
+            byte[] buffer = new byte[16 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int written = deflater.deflate(buffer);
+                    out.write(buffer, 0, written);
+                }
+            } else {
+                // A flush that does not fill the buffer has written all input, ending on a byte boundary
+                int written;
+                do {
+                    written = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, written);
+                } while (written == buffer.length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
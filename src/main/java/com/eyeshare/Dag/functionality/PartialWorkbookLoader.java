@@ -0,0 +1,79 @@
+package com.eyeshare.Dag.functionality;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+
+/**
+ * <p>Loads an .xlsx source workbook with only the sheets a profile reads.</p>
+ * <p>The package is opened in memory and, before the workbook is built from it, the XML of every other worksheet is
+ * replaced by an empty worksheet and its relations (drawings, comments, pivot tables) are dropped. POI then only parses
+ * the referenced sheets plus the workbook, styles and shared strings. Sheet names and indexes stay the same, so the
+ * operations of the profile address the same sheets as before. The source file itself is never modified.</p>
+ */
+public class PartialWorkbookLoader {
+    private static final byte[] EMPTY_WORKSHEET = ("<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">"
+            + "<sheetData/></worksheet>").getBytes(StandardCharsets.UTF_8);
+
+    private PartialWorkbookLoader() {
+    }
+
+    /**
+     * Opens the workbook, parsing only the given sheets
+     * @param sourcePath The path to the .xlsx file.
+     * @param sheets The 0-based indexes of the sheets to load.
+     * @return XSSFWorkbook
+     * @throws IOException if the file cannot be read or is not a valid .xlsx file.
+     */
+    public static XSSFWorkbook open(Path sourcePath, int[] sheets) throws IOException {
+        OPCPackage pkg = null;
+        try (InputStream in = Files.newInputStream(sourcePath)) {
+            // Opened from a stream the package lives in memory, so the changes below never reach the file
+            pkg = OPCPackage.open(in);
+            skipUnreferencedSheets(pkg, sheets);
+            return new XSSFWorkbook(pkg);
+        } catch (OpenXML4JException e) {
+            if (pkg != null) {
+                pkg.revert();
+            }
+            throw new IOException("Could not open " + sourcePath, e);
+        }
+    }
+
+
+    //Helper methods
+    private static void skipUnreferencedSheets(OPCPackage pkg, int[] sheets) throws IOException, OpenXML4JException {
+        int[] sortedSheets = sheets.clone();
+        Arrays.sort(sortedSheets);
+
+        XSSFReader.SheetIterator iterator = (XSSFReader.SheetIterator) new XSSFReader(pkg).getSheetsData();
+        for (int i = 0; iterator.hasNext(); i++) {
+            iterator.next().close();
+            PackagePart part = iterator.getSheetPart();
+            if (Arrays.binarySearch(sortedSheets, i) >= 0 || !XSSFRelation.WORKSHEET.getContentType().equals(part.getContentType())) {
+                continue;
+            }
+            emptySheet(part);
+        }
+    }
+
+    private static void emptySheet(PackagePart part) throws IOException, InvalidFormatException {
+        try (OutputStream out = part.getOutputStream()) {
+            out.write(EMPTY_WORKSHEET);
+        }
+        part.clearRelationships();
+    }
+}
@@ -0,0 +1,274 @@
+package com.eyeshare.Dag.functionality;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * <p>Work queue shared by several instances through the output folder, so they can split a batch without doing a file twice.</p>
+ * <p>Every batch has its own queue in {@value #FOLDER_NAME}/&lt;batch id&gt;, so running the batch again after its inputs
+ * changed starts from an empty queue.</p>
+ * <p>Before an instance processes a file it claims it by creating a lease file in the leases folder of the queue. The file is
+ * created with {@link StandardOpenOption#CREATE_NEW}, so only one instance can hold a lease. The holder keeps its leases
+ * alive by touching them every quarter of the lease time. A lease that has not been touched for the whole lease time
+ * belongs to an instance that died or hangs, and another instance may take it over. The expired lease is first renamed
+ * to a name only the taking instance uses, and only the instance whose rename succeeds claims the file.</p>
+ * <p>Files that succeeded are recorded in the completion journal, the journal folder of the queue, with one entry per
+ * output. An entry is written to a temp file and renamed into place, so other instances never see half an entry. A file
+ * that failed only gives up its lease, so another instance or the next run tries it again. An instance that lost its
+ * lease to a takeover drops its result and leaves the file to the instance that took it over.</p>
+ * <p>Instances are identified by host name and process id, so several processes on one machine coordinate the same way as
+ * several machines do. Lease times are compared against the local clock, keep the clocks of the machines in sync.</p>
+ */
+public class SharedFolderQueue implements Closeable {
+    public static final String FOLDER_NAME = ".excelreformatter-queue";
+    public static final long DEFAULT_LEASE_MILLIS = 60_000;
+
+    private final Path leases;
+    private final Path journal;
+    private final String nodeId;
+    private final long leaseMillis;
+    private final Set<String> heldKeys = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService heartbeat;
+
+
+    /**
+     * Constructor for a new SharedFolderQueue object.
+     * @param outputFolder The shared output folder the instances write to.
+     * @param batchId Identifies the batch, all instances splitting it must use the same id, see {@link BatchExecutor#getBatchId(java.util.List)}.
+     * @param nodeId Name of this instance, unique among the instances sharing the folder.
+     * @param leaseMillis How long a lease stays valid without a heartbeat.
+     * @throws IOException if the queue folders cannot be created.
+     */
+    public SharedFolderQueue(File outputFolder, String batchId, String nodeId, long leaseMillis) throws IOException {
+        Path queueFolder = outputFolder.toPath().resolve(FOLDER_NAME).resolve(batchId);
+        this.leases = Files.createDirectories(queueFolder.resolve("leases"));
+        this.journal = Files.createDirectories(queueFolder.resolve("journal"));
+        this.nodeId = nodeId;
+        this.leaseMillis = leaseMillis;
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lease-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(leaseMillis / 4, 1);
+        heartbeat.scheduleAtFixedRate(this::touchLeases, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Get a name for this process that differs between processes and machines: host name and process id
+     * @return String nodeId
+     */
+    public static String getDefaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "localhost";
+        }
+        return host + "-" + ProcessHandle.current().pid();
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Get how long to wait before looking again at files claimed by other instances
+     * @return long milliseconds
+     */
+    public long getPollMillis() {
+        return Math.max(leaseMillis / 4, 100);
+    }
+
+    /**
+     * Checks if the completion journal has an entry for the given output
+     * @param key The name of the output file.
+     * @return boolean
+     */
+    public boolean isComplete(String key) {
+        return Files.exists(journalEntry(key));
+    }
+
+    /**
+     * Tries to claim the given output for this instance, taking over the lease of another instance if it expired
+     * @param key The name of the output file.
+     * @return true if this instance holds the lease now and the output is not complete
+     * @throws IOException if the lease folder cannot be written.
+     */
+    public boolean tryClaim(String key) throws IOException {
+        if (isComplete(key)) {
+            return false;
+        }
+        Path lease = leases.resolve(key + ".lease");
+        if (!createLease(lease) && !(isExpired(lease) && takeOver(lease) && createLease(lease))) {
+            return false;
+        }
+        heldKeys.add(key);
+        if (isComplete(key)) {
+            // Another instance finished it between the check above and the claim
+            release(key);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if this instance still holds the lease of the given output, it does not once another instance took it over
+     * @param key The name of the output file.
+     * @return boolean
+     */
+    public boolean isHeld(String key) {
+        return heldKeys.contains(key) && isHeldByThisNode(leases.resolve(key + ".lease"));
+    }
+
+    /**
+     * Records the output that was made successfully in the completion journal and releases its lease. Nothing is recorded
+     * if the lease was taken over by another instance in the meantime, the result belongs to that instance then.
+     * Release the lease of a file that failed with {@link #release(String)} instead, so it is tried again.
+     * @param key The name of the output file.
+     * @return true if the output was recorded, false if this instance no longer held its lease
+     * @throws IOException if the journal entry cannot be written.
+     */
+    public boolean complete(String key) throws IOException {
+        try {
+            if (!isHeld(key)) {
+                System.out.println("The lease of " + key + " was taken over by another instance while it was processed, leaving it to that instance");
+                return false;
+            }
+            Path entry = journalEntry(key);
+            Path tempFile = Files.createTempFile(journal, key, ".tmp");
+            String line = Instant.now() + " " + nodeId + System.lineSeparator();
+            Files.write(tempFile, line.getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(tempFile, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } finally {
+            release(key);
+        }
+    }
+
+    /**
+     * Gives up the lease of the given output without completing it
+     * @param key The name of the output file.
+     */
+    public void release(String key) {
+        heldKeys.remove(key);
+        Path lease = leases.resolve(key + ".lease");
+        try {
+            if (isHeldByThisNode(lease)) {
+                Files.deleteIfExists(lease);
+            }
+        } catch (IOException e) {
+            System.out.println("Could not release the lease of " + key + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the heartbeat and releases every lease this instance still holds
+     */
+    @Override
+    public void close() {
+        heartbeat.shutdownNow();
+        for (String key : heldKeys) {
+            release(key);
+        }
+    }
+
+
+    //Helper methods
+    private Path journalEntry(String key) {
+        return journal.resolve(key + ".done");
+    }
+
+    private boolean createLease(Path lease) throws IOException {
+        try {
+            Files.write(lease, nodeId.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+    }
+
+    private boolean isExpired(Path lease) {
+        try {
+            return Files.getLastModifiedTime(lease).toMillis() + leaseMillis < System.currentTimeMillis();
+        } catch (IOException e) {
+            // Released in the meantime, it can be claimed on the next attempt
+            return false;
+        }
+    }
+
+    private boolean takeOver(Path lease) throws IOException {
+        Path expired = leases.resolve(lease.getFileName() + "." + nodeId + ".expired");
+        try {
+            Files.move(lease, expired, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException | FileAlreadyExistsException e) {
+            // Another instance took it over first
+            return false;
+        }
+        if (!isExpired(expired)) {
+            // Between the check and the rename another instance took it over and created a fresh lease, give it back.
+            // A rename could replace a lease created since, so it is created anew instead.
+            String owner = readOwner(expired);
+            FileTime lastTouched = Files.getLastModifiedTime(expired);
+            try {
+                Files.write(lease, String.valueOf(owner).getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                Files.setLastModifiedTime(lease, lastTouched);
+            } catch (FileAlreadyExistsException e) {
+                // Someone holds it again, nothing to give back
+            }
+            Files.deleteIfExists(expired);
+            return false;
+        }
+        System.out.println("Taking over the expired lease " + lease.getFileName() + " of " + readOwner(expired));
+        Files.deleteIfExists(expired);
+        return true;
+    }
+
+    private boolean isHeldByThisNode(Path lease) {
+        return nodeId.equals(readOwner(lease));
+    }
+
+    private static String readOwner(Path lease) {
+        try {
+            return new String(Files.readAllBytes(lease), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void touchLeases() {
+        FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+        for (String key : heldKeys) {
+            Path lease = leases.resolve(key + ".lease");
+            try {
+                if (isHeldByThisNode(lease)) {
+                    Files.setLastModifiedTime(lease, now);
+                }
+            } catch (IOException e) {
+                System.out.println("Could not renew the lease of " + key + ": " + e.getMessage());
+            }
+        }
+    }
+}
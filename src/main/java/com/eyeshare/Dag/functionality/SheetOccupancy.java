@@ -0,0 +1,138 @@
+package com.eyeshare.Dag.functionality;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+
+/**
+ * <p>Occupancy index of a source sheet: which rows and which cells of every column hold data.</p>
+ * <p>Built with one pass over the sheet the first time an operation reads it and shared by all operations of the profile,
+ * so they can stop at the real end of the data instead of scanning formatted but empty rows up to the last row of the sheet.
+ * A cell holds data unless it is blank or only whitespace text, the same rule used to find empty rows.</p>
+ */
+public class SheetOccupancy {
+    private int lastRowNum;
+    private final BitSet nonBlankRows;
+    private final List<BitSet> nonBlankColumns;
+
+
+    SheetOccupancy() {
+        this.lastRowNum = -1;
+        this.nonBlankRows = new BitSet();
+        this.nonBlankColumns = new ArrayList<>();
+    }
+
+    /**
+     * Given a {@link Sheet}.
+     * Scans all of its cells once and returns the index
+     * @param sheet
+     * @return SheetOccupancy
+     */
+    public static SheetOccupancy build(Sheet sheet) {
+        SheetOccupancy occupancy = new SheetOccupancy();
+        for (Row row : sheet) {
+            occupancy.markRow(row.getRowNum());
+            for (Cell cell : row) {
+                if (!isBlank(cell)) {
+                    occupancy.markNonBlank(row.getRowNum(), cell.getColumnIndex());
+                }
+            }
+        }
+        return occupancy;
+    }
+
+    /**
+     * Checks if a cell holds no data
+     * @param cell
+     * @return boolean
+     */
+    public static boolean isBlank(Cell cell) {
+        if (cell == null) {
+            return true;
+        }
+        CellType type = cell.getCellType();
+        return type == CellType.BLANK || (type == CellType.STRING && StreamedRow.isBlankText(cell.getStringCellValue()));
+    }
+
+    /**
+     * Get the last row of the sheet holding data
+     * @return int row, -1 if the sheet holds no data
+     */
+    public int getLastNonBlankRow() {
+        return nonBlankRows.length() - 1;
+    }
+
+    /**
+     * Get the last row holding data in the given column
+     * @param col
+     * @return int row, -1 if the column holds no data
+     */
+    public int getLastNonBlankRow(int col) {
+        return col < nonBlankColumns.size() ? nonBlankColumns.get(col).length() - 1 : -1;
+    }
+
+    /**
+     * Get the last row holding data in any of the given columns
+     * @param cols
+     * @return int row, -1 if none of the columns hold data
+     */
+    public int getLastNonBlankRow(int[] cols) {
+        int lastRow = -1;
+        for (int col : cols) {
+            lastRow = Math.max(lastRow, getLastNonBlankRow(col));
+        }
+        return lastRow;
+    }
+
+    /**
+     * Checks if a row holds no data, rows that do not exist are empty
+     * @param row
+     * @return boolean
+     */
+    public boolean isRowEmpty(int row) {
+        return !nonBlankRows.get(row);
+    }
+
+    /**
+     * Finds where the data starting at the given row ends: at the first run of the given number of empty rows, or at the
+     * empty rows that run up to the last row of the sheet.
+     * @param startRow
+     * @param maxEmptyRows
+     * @return int the first row after the data, rows from startRow up to but excluding it are data
+     */
+    public int getEndOfData(int startRow, int maxEmptyRows) {
+        int row = startRow;
+        while (row <= lastRowNum) {
+            int nextNonBlankRow = nonBlankRows.nextSetBit(row);
+            if (nextNonBlankRow < 0 || nextNonBlankRow - row >= maxEmptyRows) {
+                return row;
+            }
+            row = nextNonBlankRow + 1;
+        }
+        return row;
+    }
+
+
+    // Methods used to fill the index while a sheet is read
+    void markRow(int row) {
+        lastRowNum = Math.max(lastRowNum, row);
+    }
+
+    void markNonBlankRow(int row) {
+        nonBlankRows.set(row);
+    }
+
+    void markNonBlank(int row, int col) {
+        nonBlankRows.set(row);
+        while (nonBlankColumns.size() <= col) {
+            nonBlankColumns.add(new BitSet());
+        }
+        nonBlankColumns.get(col).set(row);
+    }
+}
@@ -0,0 +1,170 @@
+package com.eyeshare.Dag.functionality;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * <p>What a conversion of a source file reads, measured without parsing the file: the sizes of the sheets the profile
+ * reads and of the shared string table, the cell count from the dimension of those sheets and the unique string count.</p>
+ * <p>It is measured once per file and used both to schedule the file, see {@link JobScheduler#estimateCost(SourceFootprint)},
+ * and to admit it to the heap budget, see {@link HeapAdmission}. The package is opened lazily from its ZIP central
+ * directory, only the first bytes of the read sheets and of the shared strings are inflated. Sheets the profile does not
+ * read are not counted, the loaders skip them too.</p>
+ */
+public class SourceFootprint {
+    // Size of the sheet XML of one cell, for sheets without a dimension
+    static final long XML_BYTES_PER_CELL = 40;
+    private static final int HEAD_BYTES = 1024;
+    private static final Pattern DIMENSION = Pattern.compile("<dimension ref=\"([A-Z]+)(\\d+)(?::([A-Z]+)(\\d+))?\"");
+    private static final Pattern UNIQUE_COUNT = Pattern.compile("uniqueCount=\"(\\d+)\"");
+
+    private final long fileBytes;
+    private boolean isXlsx;
+    private long readSheetBytes;
+    private long allSheetBytes;
+    private long cells;
+    private long sharedStrings;
+    private long sharedStringBytes;
+
+
+    private SourceFootprint(long fileBytes) {
+        this.fileBytes = fileBytes;
+    }
+
+    /**
+     * Measures the given file
+     * @param inputFile
+     * @param sourceSheets The indexes of the sheets the profile reads, see {@link com.eyeshare.Dag.profiles.CompiledProfile#getSourceSheets()}. Null counts every sheet.
+     * @return SourceFootprint
+     */
+    public static SourceFootprint of(File inputFile, int[] sourceSheets) {
+        SourceFootprint footprint = new SourceFootprint(inputFile.length());
+        int[] sortedSheets = sourceSheets != null ? sourceSheets.clone() : null;
+        if (sortedSheets != null) {
+            Arrays.sort(sortedSheets);
+        }
+        OPCPackage pkg = null;
+        try {
+            pkg = OPCPackage.open(inputFile, PackageAccess.READ);
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) new XSSFReader(pkg).getSheetsData();
+            for (int i = 0; sheets.hasNext(); i++) {
+                try (InputStream sheet = sheets.next()) {
+                    long size = Math.max(sheets.getSheetPart().getSize(), 0);
+                    footprint.allSheetBytes += size;
+                    if (sortedSheets == null || Arrays.binarySearch(sortedSheets, i) >= 0) {
+                        footprint.readSheetBytes += size;
+                        footprint.cells += countCells(readHead(sheet), size);
+                    }
+                }
+            }
+            List<PackagePart> sharedStringParts = pkg.getPartsByContentType(XSSFRelation.SHARED_STRINGS.getContentType());
+            if (!sharedStringParts.isEmpty()) {
+                PackagePart part = sharedStringParts.get(0);
+                footprint.sharedStringBytes = Math.max(part.getSize(), 0);
+                try (InputStream in = part.getInputStream()) {
+                    Matcher matcher = UNIQUE_COUNT.matcher(readHead(in));
+                    footprint.sharedStrings = matcher.find() ? Long.parseLong(matcher.group(1)) : footprint.sharedStringBytes / XML_BYTES_PER_CELL;
+                }
+            }
+            footprint.isXlsx = true;
+        } catch (Exception e) {
+            // Not an .xlsx package (.xls) or unreadable, the processing reports the latter. Counted by its size.
+            footprint.isXlsx = false;
+            footprint.readSheetBytes = 0;
+            footprint.allSheetBytes = 0;
+            footprint.cells = inputFile.length() / 16;
+            footprint.sharedStrings = 0;
+            footprint.sharedStringBytes = 0;
+        } finally {
+            if (pkg != null) {
+                pkg.revert();
+            }
+        }
+        return footprint;
+    }
+
+    public boolean isXlsx() {
+        return isXlsx;
+    }
+
+    public long getFileBytes() {
+        return fileBytes;
+    }
+
+    /**
+     * Get the uncompressed size of the sheets the profile reads
+     * @return long bytes
+     */
+    public long getReadSheetBytes() {
+        return readSheetBytes;
+    }
+
+    /**
+     * Get the uncompressed size of every sheet of the file
+     * @return long bytes
+     */
+    public long getAllSheetBytes() {
+        return allSheetBytes;
+    }
+
+    /**
+     * Get the number of cells of the sheets the profile reads, from their dimension
+     * @return long cells
+     */
+    public long getCells() {
+        return cells;
+    }
+
+    public long getSharedStrings() {
+        return sharedStrings;
+    }
+
+    /**
+     * Get the uncompressed size of the shared string table
+     * @return long bytes
+     */
+    public long getSharedStringBytes() {
+        return sharedStringBytes;
+    }
+
+
+    //Helper methods
+    private static long countCells(String head, long sheetBytes) {
+        Matcher matcher = DIMENSION.matcher(head);
+        if (!matcher.find()) {
+            return sheetBytes / XML_BYTES_PER_CELL;
+        }
+        if (matcher.group(3) == null) {
+            return 1;
+        }
+        long rows = Long.parseLong(matcher.group(4)) - Long.parseLong(matcher.group(2)) + 1;
+        long columns = columnNumber(matcher.group(3)) - columnNumber(matcher.group(1)) + 1;
+        return Math.max(rows, 1) * Math.max(columns, 1);
+    }
+
+    private static String readHead(InputStream in) throws IOException {
+        return new String(in.readNBytes(HEAD_BYTES), StandardCharsets.UTF_8);
+    }
+
+    private static long columnNumber(String letters) {
+        long number = 0;
+        for (int i = 0; i < letters.length(); i++) {
+            number = number * 26 + (letters.charAt(i) - 'A' + 1);
+        }
+        return number;
+    }
+}
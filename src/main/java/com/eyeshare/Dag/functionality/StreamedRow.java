@@ -0,0 +1,246 @@
+package com.eyeshare.Dag.functionality;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.xssf.model.StylesTable;
+
+import java.util.Arrays;
+import java.util.Date;
+
+
+/**
+ * <p>A single source row as delivered by the {@link StreamingSourceReader}.</p>
+ * <p>The reader reuses one instance for every row of a sheet, so the values are only valid inside the row callback.
+ * Use {@link #copy()} to keep a row around (headers, look-ahead buffers).</p>
+ */
+public class StreamedRow {
+    private static final int INITIAL_WIDTH = 32;
+
+    private final StylesTable styles;
+    private final boolean date1904;
+
+    private int rowNum;
+    private int lastCellNum;
+    private CellType[] types;
+    private double[] numbers;
+    private String[] strings;
+    private String[] formulas;
+    private int[] styleIndexes;
+    private boolean dataOutsideProjection;
+
+
+    StreamedRow(StylesTable styles, boolean date1904) {
+        this.styles = styles;
+        this.date1904 = date1904;
+        this.types = new CellType[INITIAL_WIDTH];
+        this.numbers = new double[INITIAL_WIDTH];
+        this.strings = new String[INITIAL_WIDTH];
+        this.formulas = new String[INITIAL_WIDTH];
+        this.styleIndexes = new int[INITIAL_WIDTH];
+    }
+
+    /**
+     * Get the 0-based index of the row in the source sheet
+     * @return int rowNum
+     */
+    public int getRowNum() {
+        return rowNum;
+    }
+
+    /**
+     * Get the index of the last cell in the row plus one, or -1 if the row has no cells.
+     * Matches {@link org.apache.poi.ss.usermodel.Row#getLastCellNum()}.
+     * @return int lastCellNum
+     */
+    public int getLastCellNum() {
+        return lastCellNum;
+    }
+
+    /**
+     * Get the type of the cell in the given column
+     * @param col
+     * @return {@link CellType} or null if the row has no cell in that column
+     */
+    public CellType getCellType(int col) {
+        return col < lastCellNum ? types[col] : null;
+    }
+
+    public double getNumericCellValue(int col) {
+        return numbers[col];
+    }
+
+    public boolean getBooleanCellValue(int col) {
+        return numbers[col] != 0;
+    }
+
+    public String getStringCellValue(int col) {
+        return strings[col];
+    }
+
+    /**
+     * Get the formula of the cell in the given column.
+     * Dependent cells of a shared formula return the formula of its master cell with the relative references shifted to
+     * the cell, as the DOM reader returns them.
+     * @param col
+     * @return String formula, null if the cell holds no formula
+     */
+    public String getCellFormula(int col) {
+        return formulas[col];
+    }
+
+    /**
+     * Get the value of a numeric cell as a date, using the date system of the source workbook
+     * @param col
+     * @return Date
+     */
+    public Date getDateCellValue(int col) {
+        return DateUtil.getJavaDate(numbers[col], date1904);
+    }
+
+    /**
+     * Get the style of the cell in the given column, resolved against the styles table of the source workbook
+     * @param col
+     * @return {@link CellStyle}
+     */
+    public CellStyle getCellStyle(int col) {
+        return styles.getStyleAt(styleIndexes[col]);
+    }
+
+    /**
+     * Get the index of the style of the cell in the given column in the styles table of the source workbook
+     * @param col
+     * @return int styleIndex
+     */
+    public int getStyleIndex(int col) {
+        return styleIndexes[col];
+    }
+
+    /**
+     * Checks if the numeric cell in the given column is formatted as a date.
+     * Matches {@link DateUtil#isCellDateFormatted(org.apache.poi.ss.usermodel.Cell)}.
+     * @param col
+     * @return boolean
+     */
+    public boolean isCellDateFormatted(int col) {
+        double value = numbers[col];
+        if (!DateUtil.isValidExcelDate(value)) {
+            return false;
+        }
+        CellStyle style = getCellStyle(col);
+        return style != null && DateUtil.isADateFormat(style.getDataFormat(), style.getDataFormatString());
+    }
+
+    /**
+     * Checks if the row holds no visible data, the same rule the DOM path uses:
+     * missing and blank cells are empty, and so are strings made of whitespace only.
+     * Cells outside the column projection of the read count as well.
+     * @return boolean
+     */
+    public boolean isEmpty() {
+        if (dataOutsideProjection) {
+            return false;
+        }
+        for (int col = 0; col < lastCellNum; col++) {
+            if (!isBlank(col)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the cell in the given column holds no data: it is missing, blank or only whitespace text
+     * @param col
+     * @return boolean
+     */
+    public boolean isBlank(int col) {
+        CellType type = getCellType(col);
+        return type == null || type == CellType.BLANK || (type == CellType.STRING && isBlankText(strings[col]));
+    }
+
+    /**
+     * Checks if the cells in all of the given columns hold no data
+     * @param cols
+     * @return boolean
+     */
+    public boolean isBlank(int[] cols) {
+        for (int col : cols) {
+            if (!isBlank(col)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the text is empty or only whitespace, like {@code text.trim().isEmpty()} but without creating a new String
+     * @param text
+     * @return boolean
+     */
+    static boolean isBlankText(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates a detached copy of this row that stays valid after the reader moves on
+     * @return StreamedRow
+     */
+    public StreamedRow copy() {
+        StreamedRow copy = new StreamedRow(styles, date1904);
+        copy.rowNum = rowNum;
+        copy.lastCellNum = lastCellNum;
+        copy.dataOutsideProjection = dataOutsideProjection;
+        copy.types = Arrays.copyOf(types, types.length);
+        copy.numbers = Arrays.copyOf(numbers, numbers.length);
+        copy.strings = Arrays.copyOf(strings, strings.length);
+        copy.formulas = Arrays.copyOf(formulas, formulas.length);
+        copy.styleIndexes = Arrays.copyOf(styleIndexes, styleIndexes.length);
+        return copy;
+    }
+
+
+    // Methods used by the reader to fill the row
+    void reset(int rowNum) {
+        Arrays.fill(types, 0, Math.max(lastCellNum, 0), null);
+        this.rowNum = rowNum;
+        this.lastCellNum = -1;
+        this.dataOutsideProjection = false;
+    }
+
+    void markDataOutsideProjection() {
+        this.dataOutsideProjection = true;
+    }
+
+    boolean hasDataOutsideProjection() {
+        return dataOutsideProjection;
+    }
+
+    void setCell(int col, CellType type, double number, String string, String formula, int styleIndex) {
+        if (col >= types.length) {
+            grow(col + 1);
+        }
+        types[col] = type;
+        numbers[col] = number;
+        strings[col] = string;
+        formulas[col] = formula;
+        styleIndexes[col] = styleIndex;
+        if (col >= lastCellNum) {
+            lastCellNum = col + 1;
+        }
+    }
+
+    private void grow(int minWidth) {
+        int width = Math.max(minWidth, types.length * 2);
+        types = Arrays.copyOf(types, width);
+        numbers = Arrays.copyOf(numbers, width);
+        strings = Arrays.copyOf(strings, width);
+        formulas = Arrays.copyOf(formulas, width);
+        styleIndexes = Arrays.copyOf(styleIndexes, width);
+    }
+}
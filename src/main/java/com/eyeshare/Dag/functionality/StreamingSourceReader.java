@@ -0,0 +1,410 @@
+package com.eyeshare.Dag.functionality;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+
+/**
+ * <p>Event model (SAX) reader for .xlsx source files.</p>
+ * <p>Instead of building the full XSSF DOM, the sheet XML is parsed row by row and every row is handed to a
+ * {@link RowHandler} as a reused {@link StreamedRow}. Heap usage is bounded by the width of a row plus the
+ * shared strings and styles tables, not by the number of rows in the file.</p>
+ */
+public class StreamingSourceReader implements Closeable {
+    private OPCPackage pkg;
+    private XSSFReader reader;
+    private ReadOnlySharedStringsTable sharedStrings;
+    private StylesTable styles;
+    private boolean date1904;
+
+
+    /**
+     * Callback receiving the rows of a sheet in document order
+     */
+    public interface RowHandler {
+        /**
+         * Handles a single row. The row object is reused, use {@link StreamedRow#copy()} to keep it.
+         * @param row
+         * @return true to keep reading, false to stop reading the sheet
+         */
+        boolean handleRow(StreamedRow row);
+    }
+
+    /**
+     * Constructor for a new StreamingSourceReader object.
+     * @param filePath The path to the .xlsx file to be read.
+     * @throws IOException if the file cannot be opened or is not a valid .xlsx file.
+     */
+    public StreamingSourceReader(String filePath) throws IOException {
+        try {
+            this.pkg = OPCPackage.open(filePath, PackageAccess.READ);
+            this.reader = new XSSFReader(pkg);
+            this.sharedStrings = new ReadOnlySharedStringsTable(pkg, false);
+            this.styles = reader.getStylesTable();
+            this.date1904 = readDate1904();
+        } catch (OpenXML4JException | SAXException e) {
+            close();
+            throw new IOException("Could not open " + filePath + " for streaming", e);
+        }
+    }
+
+    /**
+     * Reads the sheet at the given index and hands every row to the handler.
+     * Rows that are not present in the sheet XML are skipped, just like {@link org.apache.poi.ss.usermodel.Sheet#getRow(int)} returns null for them.
+     * @param sheetIndex 0-based index of the sheet in workbook order.
+     * @param handler The handler receiving the rows.
+     * @throws IOException if the sheet cannot be read.
+     */
+    public void readSheet(int sheetIndex, RowHandler handler) throws IOException {
+        readSheet(sheetIndex, null, handler);
+    }
+
+    /**
+     * Reads the sheet at the given index and hands every row to the handler, with only the given columns filled in.
+     * The values and styles of the other cells are never built, the reader only notes whether they hold data so
+     * {@link StreamedRow#isEmpty()} still sees the whole row.
+     * @param sheetIndex 0-based index of the sheet in workbook order.
+     * @param columns The 0-based indexes of the columns to read, null to read all columns.
+     * @param handler The handler receiving the rows.
+     * @throws IOException if the sheet cannot be read.
+     */
+    public void readSheet(int sheetIndex, BitSet columns, RowHandler handler) throws IOException {
+        try (InputStream sheetData = openSheet(sheetIndex)) {
+            XMLReader parser = XMLHelper.newXMLReader();
+            parser.setContentHandler(new SheetHandler(handler, columns));
+            parser.parse(new InputSource(sheetData));
+        } catch (StopReading e) {
+            // The handler asked to stop, nothing left to do
+        } catch (SAXException | ParserConfigurationException | OpenXML4JException e) {
+            throw new IOException("Could not read sheet " + sheetIndex, e);
+        }
+    }
+
+    /**
+     * Get the styles table of the source workbook
+     * @return {@link StylesTable}
+     */
+    public StylesTable getStyles() {
+        return styles;
+    }
+
+    /**
+     * Checks if the source workbook uses the 1904 date system
+     * @return boolean
+     */
+    public boolean isDate1904() {
+        return date1904;
+    }
+
+    @Override
+    public void close() {
+        if (pkg != null) {
+            pkg.revert();
+            pkg = null;
+        }
+    }
+
+
+    //Helper methods
+    private InputStream openSheet(int sheetIndex) throws IOException, OpenXML4JException {
+        Iterator<InputStream> sheets = reader.getSheetsData();
+        for (int i = 0; sheets.hasNext(); i++) {
+            InputStream sheet = sheets.next();
+            if (i == sheetIndex) {
+                return sheet;
+            }
+            sheet.close();
+        }
+        throw new IllegalArgumentException("Sheet index (" + sheetIndex + ") is out of range");
+    }
+
+    private boolean readDate1904() throws IOException, OpenXML4JException, SAXException {
+        boolean[] result = new boolean[1];
+        try (InputStream workbookData = reader.getWorkbookData()) {
+            XMLReader parser = XMLHelper.newXMLReader();
+            parser.setContentHandler(new DefaultHandler() {
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+                    if ("workbookPr".equals(localName)) {
+                        String value = attributes.getValue("date1904");
+                        result[0] = "1".equals(value) || "true".equals(value);
+                        throw new StopReading();
+                    }
+                    if ("sheets".equals(localName)) {
+                        throw new StopReading();
+                    }
+                }
+            });
+            parser.parse(new InputSource(workbookData));
+        } catch (StopReading e) {
+            // Found what we were looking for
+        } catch (ParserConfigurationException e) {
+            throw new IOException(e);
+        }
+        return result[0];
+    }
+
+    private static int parseRowIndex(String ref, int fallback) {
+        return ref == null ? fallback : Integer.parseInt(ref) - 1;
+    }
+
+    private static int parseColumnIndex(String ref, int fallback) {
+        if (ref == null) {
+            return fallback;
+        }
+        int end = 0;
+        while (end < ref.length() && Character.isLetter(ref.charAt(end))) {
+            end++;
+        }
+        return CellReference.convertColStringToIndex(ref.substring(0, end));
+    }
+
+
+    /**
+     * Thrown from inside the SAX callbacks to stop parsing early.
+     */
+    private static class StopReading extends SAXException {
+        StopReading() {
+            super("Stop reading");
+        }
+    }
+
+
+    /**
+     * The master cell of a shared formula group
+     */
+    private static class SharedFormula {
+        private final String formula;
+        private final int row;
+        private final int col;
+
+        SharedFormula(String formula, int row, int col) {
+            this.formula = formula;
+            this.row = row;
+            this.col = col;
+        }
+    }
+
+
+    /**
+     * SAX handler for the &lt;sheetData&gt; part of a worksheet
+     */
+    private class SheetHandler extends DefaultHandler {
+        private final RowHandler handler;
+        private final BitSet columns;
+        private final StreamedRow row;
+        private final StringBuilder text = new StringBuilder();
+
+        private boolean inRow;
+        private int rowIndex = -1;
+        private int colIndex;
+        private String cellType;
+        private int styleIndex;
+        private String value;
+        private String formula;
+        // Group index of a shared formula, set on the <f> of the master cell and of every cell sharing it
+        private String sharedIndex;
+        // Formula and position of the master cell of every shared formula group of the sheet
+        private final Map<String, SharedFormula> sharedFormulas = new HashMap<>();
+        private String inlineString;
+        private boolean collecting;
+        private boolean projected;
+        private boolean hasData;
+
+        SheetHandler(RowHandler handler, BitSet columns) {
+            this.handler = handler;
+            this.columns = columns;
+            this.row = new StreamedRow(styles, date1904);
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+                case "row":
+                    rowIndex = parseRowIndex(attributes.getValue("r"), rowIndex + 1);
+                    colIndex = -1;
+                    row.reset(rowIndex);
+                    inRow = true;
+                    break;
+                case "c":
+                    colIndex = parseColumnIndex(attributes.getValue("r"), colIndex + 1);
+                    cellType = attributes.getValue("t");
+                    projected = columns == null || columns.get(colIndex);
+                    if (projected) {
+                        String style = attributes.getValue("s");
+                        styleIndex = style == null ? 0 : Integer.parseInt(style);
+                    }
+                    hasData = false;
+                    value = null;
+                    formula = null;
+                    sharedIndex = null;
+                    inlineString = null;
+                    break;
+                case "f":
+                    sharedIndex = "shared".equals(attributes.getValue("t")) ? attributes.getValue("si") : null;
+                    text.setLength(0);
+                    collecting = inRow;
+                    break;
+                case "v":
+                case "t":
+                    text.setLength(0);
+                    collecting = inRow;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (collecting) {
+                text.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            switch (localName) {
+                case "v":
+                    if (projected) {
+                        value = text.toString();
+                    } else {
+                        hasData |= isValuePresent();
+                    }
+                    collecting = false;
+                    break;
+                case "f":
+                    String cellFormula = text.length() > 0 ? text.toString() : null;
+                    if (sharedIndex != null) {
+                        if (cellFormula != null) {
+                            // The master cell, recorded even outside the projection since other columns may share it
+                            sharedFormulas.put(sharedIndex, new SharedFormula(cellFormula, rowIndex, colIndex));
+                        } else {
+                            SharedFormula master = sharedFormulas.get(sharedIndex);
+                            if (master != null) {
+                                cellFormula = FormulaReferenceShifter.shift(master.formula, rowIndex - master.row, colIndex - master.col);
+                            }
+                        }
+                    }
+                    if (projected) {
+                        formula = cellFormula;
+                    } else {
+                        hasData |= cellFormula != null;
+                    }
+                    collecting = false;
+                    break;
+                case "t":
+                    if (projected) {
+                        // Inline strings may be split in rich text runs
+                        inlineString = inlineString == null ? text.toString() : inlineString + text;
+                    } else {
+                        hasData |= !StreamedRow.isBlankText(text);
+                    }
+                    collecting = false;
+                    break;
+                case "c":
+                    if (projected) {
+                        endCell();
+                    } else if (hasData) {
+                        row.markDataOutsideProjection();
+                    }
+                    break;
+                case "row":
+                    inRow = false;
+                    if (!handler.handleRow(row)) {
+                        throw new StopReading();
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * Checks if the collected &lt;v&gt; text of a cell outside the projection is data, without building its value
+         */
+        private boolean isValuePresent() {
+            if (cellType == null || "n".equals(cellType)) {
+                return text.length() > 0;
+            }
+            switch (cellType) {
+                case "s":
+                    if (text.length() == 0) {
+                        return false;
+                    }
+                    int index = Integer.parseInt(text, 0, text.length(), 10);
+                    return !StreamedRow.isBlankText(sharedStrings.getItemAt(index).getString());
+                case "str":
+                    return !StreamedRow.isBlankText(text);
+                case "b":
+                case "e":
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        private void endCell() {
+            if (formula != null) {
+                row.setCell(colIndex, CellType.FORMULA, 0, null, formula, styleIndex);
+                return;
+            }
+            if (cellType == null || "n".equals(cellType)) {
+                if (value == null || value.isEmpty()) {
+                    row.setCell(colIndex, CellType.BLANK, 0, null, null, styleIndex);
+                } else {
+                    row.setCell(colIndex, CellType.NUMERIC, Double.parseDouble(value), null, null, styleIndex);
+                }
+                return;
+            }
+            switch (cellType) {
+                case "s":
+                    if (value == null || value.isEmpty()) {
+                        row.setCell(colIndex, CellType.BLANK, 0, null, null, styleIndex);
+                        break;
+                    }
+                    String shared = sharedStrings.getItemAt(Integer.parseInt(value)).getString();
+                    row.setCell(colIndex, CellType.STRING, 0, shared, null, styleIndex);
+                    break;
+                case "inlineStr":
+                    row.setCell(colIndex, CellType.STRING, 0, inlineString != null ? inlineString : "", null, styleIndex);
+                    break;
+                case "str":
+                    // Cached string result of a formula without formula text
+                    row.setCell(colIndex, CellType.STRING, 0, value != null ? value : "", null, styleIndex);
+                    break;
+                case "b":
+                    row.setCell(colIndex, CellType.BOOLEAN, "1".equals(value) ? 1 : 0, null, null, styleIndex);
+                    break;
+                case "e":
+                    row.setCell(colIndex, CellType.ERROR, 0, value, null, styleIndex);
+                    break;
+                default:
+                    row.setCell(colIndex, CellType.BLANK, 0, null, null, styleIndex);
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.eyeshare.Dag.functionality;
+
+import com.eyeshare.Dag.utils.ContentHash;
+
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * <p>Process-wide cache of template files.</p>
+ * <p>The bytes of every template are read from disk once and kept for the lifetime of the process. Each output workbook is
+ * parsed straight from those bytes, so a batch no longer reads, parses, serializes and re-parses the template per file.
+ * An entry is reloaded when the modification time or size of the template file changes.</p>
+ * Singleton class
+ */
+public class TemplateCache {
+    private static final TemplateCache INSTANCE = new TemplateCache();
+
+    private final ConcurrentMap<Path, CachedTemplate> templates;
+
+
+    private TemplateCache() {
+        this.templates = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Get the process-wide template cache
+     * @return TemplateCache
+     */
+    public static TemplateCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Creates a new, independent output workbook from the cached bytes of the given template.
+     * @param templatePath The path to the template file.
+     * @return Workbook
+     * @throws IOException if the template cannot be read or parsed.
+     */
+    public Workbook newWorkbook(Path templatePath) throws IOException {
+        return WorkbookFactory.create(new ByteArrayInputStream(getBytes(templatePath)));
+    }
+
+    /**
+     * Get the bytes of the given template, reading the file only if it is not cached or has changed on disk.
+     * The returned array is shared and must not be modified.
+     * @param templatePath The path to the template file.
+     * @return byte[]
+     * @throws IOException if the template cannot be read.
+     */
+    public byte[] getBytes(Path templatePath) throws IOException {
+        Path key = templatePath.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        long size = attributes.size();
+
+        CachedTemplate cached = templates.get(key);
+        if (cached == null || cached.lastModified != lastModified || cached.size != size) {
+            cached = new CachedTemplate(Files.readAllBytes(key), lastModified, size);
+            templates.put(key, cached);
+        }
+        return cached.bytes;
+    }
+
+    /**
+     * Get the SHA-256 content hash of the given template, computed once per cached version of the file
+     * @param templatePath The path to the template file.
+     * @return String hex hash
+     * @throws IOException if the template cannot be read.
+     */
+    public String getContentHash(Path templatePath) throws IOException {
+        getBytes(templatePath);
+        return templates.get(templatePath.toAbsolutePath().normalize()).getContentHash();
+    }
+
+    /**
+     * Removes every cached template
+     */
+    public void clear() {
+        templates.clear();
+    }
+
+
+    private static final class CachedTemplate {
+        private final byte[] bytes;
+        private final long lastModified;
+        private final long size;
+        private volatile String contentHash;
+
+        CachedTemplate(byte[] bytes, long lastModified, long size) {
+            this.bytes = bytes;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        String getContentHash() {
+            if (contentHash == null) {
+                contentHash = ContentHash.of(bytes);
+            }
+            return contentHash;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.eyeshare.Dag.functionality;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.BitSet;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+
+/**
+ * <p>Saves an output workbook that was created from a cached template by writing only what changed.</p>
+ * <p>The sheets that operations wrote to, the styles and the shared strings are serialized from the workbook. Every other
+ * entry of the template (untouched sheets, drawings, themes, VBA, properties) is copied from the template ZIP as it is
+ * stored, compressed data included, so it is neither parsed, inflated nor deflated again.</p>
+ * <p>The fresh parts are serialized concurrently and compressed with the {@link ParallelDeflater} at the requested level,
+ * then the ZIP is assembled in the order of the template entries.</p>
+ * <p>When the workbook holds parts the template does not have, for example a shared strings table POI had to create, the
+ * template entries no longer describe the package and the workbook is written in full instead.</p>
+ */
+public class TemplatePassthroughWriter {
+    // XSSFSheet only serializes itself as part of a full workbook write, its write method is not public
+    private static final Method SHEET_WRITE = findSheetWrite();
+    private static final Executor EXECUTOR = ForkJoinPool.commonPool();
+
+    private TemplatePassthroughWriter() {
+    }
+
+    /**
+     * Writes the workbook to the stream, passing through the template entries of everything that was not modified
+     * @param workbook The output workbook, created from the template bytes.
+     * @param templateBytes The bytes of the template the workbook was created from.
+     * @param modifiedSheets The indexes of the sheets that were written to.
+     * @param level The {@link java.util.zip.Deflater} compression level of the fresh parts.
+     * @param out The stream to write to, it is not closed.
+     * @throws IOException if the workbook cannot be written.
+     */
+    public static void write(XSSFWorkbook workbook, byte[] templateBytes, BitSet modifiedSheets, int level, OutputStream out) throws IOException {
+        try (ZipFile template = new ZipFile(new SeekableInMemoryByteChannel(templateBytes))) {
+            Map<String, Writer> freshParts = getFreshParts(workbook, modifiedSheets);
+            if (SHEET_WRITE == null || freshParts == null || !containsAllParts(template, workbook)) {
+                workbook.write(out);
+                return;
+            }
+            // The fresh parts are serialized concurrently, and large ones are compressed in parallel chunks
+            Map<String, CompletableFuture<CompressedPart>> compressedParts = new HashMap<>();
+            for (Map.Entry<String, Writer> part : freshParts.entrySet()) {
+                Writer writer = part.getValue();
+                compressedParts.put(part.getKey(), CompletableFuture.supplyAsync(() -> compress(writer, level), EXECUTOR));
+            }
+
+            ZipArchiveOutputStream zip = new ZipArchiveOutputStream(new NonClosingOutputStream(out));
+            Enumeration<ZipArchiveEntry> entries = template.getEntriesInPhysicalOrder();
+            while (entries.hasMoreElements()) {
+                ZipArchiveEntry entry = entries.nextElement();
+                CompletableFuture<CompressedPart> compressedPart = compressedParts.get(entry.getName());
+                if (compressedPart == null) {
+                    try (InputStream raw = template.getRawInputStream(entry)) {
+                        zip.addRawArchiveEntry(entry, raw);
+                    }
+                    continue;
+                }
+                CompressedPart part = join(compressedPart);
+                ZipArchiveEntry freshEntry = new ZipArchiveEntry(entry.getName());
+                freshEntry.setMethod(ZipEntry.DEFLATED);
+                freshEntry.setTime(entry.getTime());
+                freshEntry.setSize(part.size);
+                freshEntry.setCompressedSize(part.data.length);
+                freshEntry.setCrc(part.crc);
+                zip.addRawArchiveEntry(freshEntry, new ByteArrayInputStream(part.data));
+            }
+            zip.finish();
+            zip.close();
+        }
+    }
+
+
+    /**
+     * Checks if the sheets of this POI version can be serialized on their own. If not, every workbook is written in full.
+     * @return boolean
+     */
+    static boolean isPassthroughAvailable() {
+        return SHEET_WRITE != null;
+    }
+
+
+    //Helper methods
+    private static Map<String, Writer> getFreshParts(XSSFWorkbook workbook, BitSet modifiedSheets) {
+        if (workbook.getStylesSource() == null || workbook.getSharedStringSource() == null) {
+            return null;
+        }
+        Map<String, Writer> parts = new HashMap<>();
+        parts.put(entryName(workbook.getStylesSource().getPackagePart()), workbook.getStylesSource()::writeTo);
+        parts.put(entryName(workbook.getSharedStringSource().getPackagePart()), workbook.getSharedStringSource()::writeTo);
+        for (int i = modifiedSheets.nextSetBit(0); i >= 0 && i < workbook.getNumberOfSheets(); i = modifiedSheets.nextSetBit(i + 1)) {
+            XSSFSheet sheet = workbook.getSheetAt(i);
+            parts.put(entryName(sheet.getPackagePart()), out -> writeSheet(sheet, out));
+        }
+        return parts;
+    }
+
+    private static boolean containsAllParts(ZipFile template, XSSFWorkbook workbook) throws IOException {
+        Set<String> entryNames = new HashSet<>();
+        Enumeration<ZipArchiveEntry> entries = template.getEntries();
+        while (entries.hasMoreElements()) {
+            entryNames.add(entries.nextElement().getName());
+        }
+        try {
+            for (PackagePart part : workbook.getPackage().getParts()) {
+                if (!entryNames.contains(entryName(part))) {
+                    return false;
+                }
+            }
+        } catch (InvalidFormatException e) {
+            throw new IOException(e);
+        }
+        return true;
+    }
+
+    private static CompressedPart compress(Writer writer, int level) {
+        PartBuffer buffer = new PartBuffer();
+        try {
+            writer.write(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.getBuffer(), 0, buffer.size());
+        byte[] data = ParallelDeflater.deflate(buffer.getBuffer(), buffer.size(), level, EXECUTOR);
+        return new CompressedPart(data, buffer.size(), crc.getValue());
+    }
+
+    private static CompressedPart join(CompletableFuture<CompressedPart> compressedPart) throws IOException {
+        try {
+            return compressedPart.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static String entryName(PackagePart part) {
+        // Part names are absolute, ZIP entry names are not
+        return part.getPartName().getName().substring(1);
+    }
+
+    private static void writeSheet(XSSFSheet sheet, OutputStream out) throws IOException {
+        try {
+            SHEET_WRITE.invoke(sheet, out);
+        } catch (IllegalAccessException e) {
+            throw new IOException(e);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static Method findSheetWrite() {
+        try {
+            Method method = XSSFSheet.class.getDeclaredMethod("write", OutputStream.class);
+            method.setAccessible(true);
+            return method;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Without it every workbook is written in full
+            return null;
+        }
+    }
+
+
+    /**
+     * Writes the content of a fresh part
+     */
+    private interface Writer {
+        void write(OutputStream out) throws IOException;
+    }
+
+
+    /**
+     * A fresh part compressed into a raw DEFLATE stream
+     */
+    private static final class CompressedPart {
+        private final byte[] data;
+        private final long size;
+        private final long crc;
+
+        CompressedPart(byte[] data, long size, long crc) {
+            this.data = data;
+            this.size = size;
+            this.crc = crc;
+        }
+    }
+
+
+    /**
+     * Gives the compressor the serialized part without copying it
+     */
+    private static class PartBuffer extends ByteArrayOutputStream {
+        PartBuffer() {
+            super(64 * 1024);
+        }
+
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+
+    /**
+     * Keeps the caller's stream open when the ZIP stream is closed
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
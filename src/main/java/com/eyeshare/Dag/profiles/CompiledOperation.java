@@ -0,0 +1,314 @@
+package com.eyeshare.Dag.profiles;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * CompiledOperation
+ * Immutable, validated form of an {@link Operation}
+ * The untyped parameter map is resolved into primitive fields once, so applying the operation needs no casts, boxing or map lookups
+ */
+public abstract class CompiledOperation {
+    private final OpType type;
+    private final int srcSheet;
+    private final int dstSheet;
+
+    private CompiledOperation(OpType type, int srcSheet, int dstSheet) {
+        this.type = type;
+        this.srcSheet = srcSheet;
+        this.dstSheet = dstSheet;
+    }
+
+    /**
+     * Get the type of the operation
+     * @return {@link OpType} type
+     */
+    public OpType getType() {
+        return type;
+    }
+
+    /**
+     * Get the index of the sheet the operation reads from
+     * @return int srcSheet
+     */
+    public int getSrcSheet() {
+        return srcSheet;
+    }
+
+    /**
+     * Get the index of the sheet the operation writes to
+     * @return int dstSheet
+     */
+    public int getDstSheet() {
+        return dstSheet;
+    }
+
+    /**
+     * Given an {@link Operation} with its raw parameters.
+     * Validates the parameters and returns the compiled operation
+     * @param operation
+     * @return CompiledOperation
+     * @throws IllegalArgumentException if a parameter is missing or invalid
+     */
+    public static CompiledOperation compile(Operation<?> operation) {
+        Map<String, ?> parameters = operation.getParameters();
+        if (operation.getType() == null || parameters == null) {
+            throw new IllegalArgumentException("Operation has no type or parameters");
+        }
+        switch (operation.getType()) {
+            case COPY_COLUMN:
+                return new CopyColumn(index(parameters, "srcSheet"), index(parameters, "srcCol"),
+                        index(parameters, "dstSheet"), index(parameters, "dstCol"));
+            case COPY_ROWS:
+                return new CopyRows(index(parameters, "srcSheet"), index(parameters, "dstSheet"),
+                        index(parameters, "startRow"), index(parameters, "numRows"));
+            case COPY_SPLIT_ROW:
+                return new CopySplitRow(index(parameters, "srcSheet"), index(parameters, "dstSheet"),
+                        index(parameters, "startRow"), columnMap(parameters), flag(parameters, "includeHeaders"),
+                        index(parameters, "headerCol"));
+            default:
+                throw new IllegalArgumentException("Invalid operation type: " + operation.getType());
+        }
+    }
+
+
+    /**
+     * Copies one column of a sheet into a column of another sheet, starting below the header row
+     */
+    public static final class CopyColumn extends CompiledOperation {
+        // COPY_COLUMN has always started below the header row, whatever the profile says
+        public static final int START_ROW = 1;
+
+        private final int srcCol;
+        private final int dstCol;
+
+        public CopyColumn(int srcSheet, int srcCol, int dstSheet, int dstCol) {
+            super(OpType.COPY_COLUMN, srcSheet, dstSheet);
+            this.srcCol = srcCol;
+            this.dstCol = dstCol;
+        }
+
+        public int getSrcCol() {
+            return srcCol;
+        }
+
+        public int getDstCol() {
+            return dstCol;
+        }
+
+        public int getStartRow() {
+            return START_ROW;
+        }
+    }
+
+    /**
+     * Several COPY_COLUMN operations between the same pair of sheets, fused by {@link CompiledProfile} so they are
+     * performed in one row-major pass. Within a row the columns are copied in profile order.
+     */
+    public static final class CopyColumns extends CompiledOperation {
+        private final int[] srcCols;
+        private final int[] dstCols;
+
+        public CopyColumns(List<CopyColumn> operations) {
+            super(OpType.COPY_COLUMN, operations.get(0).getSrcSheet(), operations.get(0).getDstSheet());
+            this.srcCols = new int[operations.size()];
+            this.dstCols = new int[operations.size()];
+            for (int i = 0; i < operations.size(); i++) {
+                CopyColumn operation = operations.get(i);
+                if (operation.getSrcSheet() != getSrcSheet() || operation.getDstSheet() != getDstSheet()) {
+                    throw new IllegalArgumentException("Fused column operations must share their source and destination sheet");
+                }
+                srcCols[i] = operation.getSrcCol();
+                dstCols[i] = operation.getDstCol();
+            }
+        }
+
+        public int[] getSrcCols() {
+            return srcCols;
+        }
+
+        public int[] getDstCols() {
+            return dstCols;
+        }
+
+        public int getStartRow() {
+            return CopyColumn.START_ROW;
+        }
+    }
+
+    /**
+     * Copies a range of whole rows into the same rows of another sheet
+     */
+    public static final class CopyRows extends CompiledOperation {
+        private final int startRow;
+        private final int endRow;
+
+        public CopyRows(int srcSheet, int dstSheet, int startRow, int endRow) {
+            super(OpType.COPY_ROWS, srcSheet, dstSheet);
+            if (endRow < startRow) {
+                throw new IllegalArgumentException("numRows (" + endRow + ") is before startRow (" + startRow + ")");
+            }
+            this.startRow = startRow;
+            this.endRow = endRow;
+        }
+
+        public int getStartRow() {
+            return startRow;
+        }
+
+        /**
+         * Get the last row copied, inclusive. Stored as numRows in the profile.
+         * @return int endRow
+         */
+        public int getEndRow() {
+            return endRow;
+        }
+    }
+
+    /**
+     * Copies every source row into one or more target rows.
+     * Source columns that map to the same destination column are split over consecutive target rows.
+     * The column map is resolved into primitive arrays: for split j and destination index k,
+     * {@link #getSourceColumns()}[j][k] is the column copied into {@link #getDstCols()}[k] and
+     * {@link #getHeaderColumns()}[j][k] the column whose header is written to the header column.
+     */
+    public static final class CopySplitRow extends CompiledOperation {
+        private final int startRow;
+        private final boolean includeHeaders;
+        private final int headerCol;
+        private final int[] dstCols;
+        private final int[][] sourceColumns;
+        private final int[][] headerColumns;
+
+        public CopySplitRow(int srcSheet, int dstSheet, int startRow, Map<Integer, Integer> colMap, boolean includeHeaders, int headerCol) {
+            super(OpType.COPY_SPLIT_ROW, srcSheet, dstSheet);
+            if (colMap.isEmpty()) {
+                throw new IllegalArgumentException("colMap is empty");
+            }
+            this.startRow = startRow;
+            this.includeHeaders = includeHeaders;
+            this.headerCol = headerCol;
+
+            // Invert the map in the same iteration order the engine has always used
+            HashMap<Integer, List<Integer>> invertedColMap = new HashMap<>();
+            for (Map.Entry<Integer, Integer> entry : colMap.entrySet()) {
+                invertedColMap.computeIfAbsent(entry.getValue(), k -> new ArrayList<>()).add(entry.getKey());
+            }
+            int splits = 1;
+            int keyToSplit = 0;
+            for (Map.Entry<Integer, List<Integer>> entry : invertedColMap.entrySet()) {
+                if (entry.getValue().size() > splits) {
+                    splits = entry.getValue().size();
+                    keyToSplit = entry.getKey();
+                }
+            }
+
+            this.dstCols = new int[invertedColMap.size()];
+            this.sourceColumns = new int[splits][dstCols.length];
+            this.headerColumns = new int[splits][dstCols.length];
+            int k = 0;
+            for (Map.Entry<Integer, List<Integer>> entry : invertedColMap.entrySet()) {
+                List<Integer> srcCols = entry.getValue();
+                dstCols[k] = entry.getKey();
+                for (int j = 0; j < splits; j++) {
+                    int splitCol = srcCols.get(Math.min(j, srcCols.size() - 1));
+                    headerColumns[j][k] = splitCol;
+                    sourceColumns[j][k] = entry.getKey() == keyToSplit ? splitCol : srcCols.get(0);
+                }
+                k++;
+            }
+        }
+
+        public int getStartRow() {
+            return startRow;
+        }
+
+        public boolean isIncludeHeaders() {
+            return includeHeaders;
+        }
+
+        public int getHeaderCol() {
+            return headerCol;
+        }
+
+        /**
+         * Get the number of target rows written per source row
+         * @return int splits
+         */
+        public int getSplits() {
+            return sourceColumns.length;
+        }
+
+        public int[] getDstCols() {
+            return dstCols;
+        }
+
+        public int[][] getSourceColumns() {
+            return sourceColumns;
+        }
+
+        public int[][] getHeaderColumns() {
+            return headerColumns;
+        }
+
+        /**
+         * Get the column whose header ends up in the header column of the given split.
+         * The header is written once per destination column and the last one is kept, so this is the header of the last destination column.
+         * @param split
+         * @return int column
+         */
+        public int getHeaderColumn(int split) {
+            return headerColumns[split][dstCols.length - 1];
+        }
+    }
+
+
+    //Helper methods
+    private static int index(Map<String, ?> parameters, String name) {
+        return toIndex(parameters.get(name), name);
+    }
+
+    private static int toIndex(Object value, String name) {
+        if (value == null) {
+            throw new IllegalArgumentException("Missing parameter " + name);
+        }
+        double number;
+        if (value instanceof Number) {
+            number = ((Number) value).doubleValue();
+        } else {
+            // Older versions of the GUI stored some indexes as text
+            try {
+                number = Double.parseDouble(value.toString().trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Parameter " + name + " is not a number: " + value);
+            }
+        }
+        if (number < 0 || number != Math.rint(number) || number > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Parameter " + name + " is not a valid index: " + value);
+        }
+        return (int) number;
+    }
+
+    private static boolean flag(Map<String, ?> parameters, String name) {
+        Object value = parameters.get(name);
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        throw new IllegalArgumentException(value == null ? "Missing parameter " + name : "Parameter " + name + " is not a boolean: " + value);
+    }
+
+    private static Map<Integer, Integer> columnMap(Map<String, ?> parameters) {
+        Object value = parameters.get("colMap");
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException(value == null ? "Missing parameter colMap" : "Parameter colMap is not a map: " + value);
+        }
+        Map<Integer, Integer> colMap = new HashMap<>();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+            colMap.put(toIndex(entry.getKey(), "colMap key"), toIndex(entry.getValue(), "colMap value"));
+        }
+        return colMap;
+    }
+}
@@ -0,0 +1,224 @@
+package com.eyeshare.Dag.profiles;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * CompiledProfile
+ * Immutable execution plan of a {@link Profile}
+ * Every operation is validated and compiled once, see {@link CompiledOperation}
+ * COPY_COLUMN operations between the same pair of sheets are fused into {@link CompiledOperation.CopyColumns}
+ */
+public class CompiledProfile {
+    private final String name;
+    private final String templatePath;
+    private final NamingConvention namingConvention;
+    private final ReadMode readMode;
+    private final int outputRowWindow;
+    private final CompressionLevel compressionLevel;
+    private final List<CompiledOperation> operations;
+    private final List<CompiledOperation> executionPlan;
+    private final int[] sourceSheets;
+
+
+    private CompiledProfile(Profile profile, List<CompiledOperation> operations) {
+        this.name = profile.getName();
+        this.templatePath = profile.getTemplatePath();
+        this.namingConvention = profile.getNamingConvention();
+        this.readMode = profile.getReadMode();
+        this.outputRowWindow = profile.getOutputRowWindow();
+        this.compressionLevel = profile.getCompressionLevel();
+        this.operations = Collections.unmodifiableList(operations);
+        this.executionPlan = Collections.unmodifiableList(fuseColumnOperations(operations));
+        this.sourceSheets = operations.stream().mapToInt(CompiledOperation::getSrcSheet).distinct().sorted().toArray();
+    }
+
+    /**
+     * Given a {@link Profile}.
+     * Validates and compiles all of its operations
+     * @param profile
+     * @return CompiledProfile
+     * @throws IllegalArgumentException naming the first invalid operation
+     */
+    public static CompiledProfile compile(Profile profile) {
+        if (profile.getTemplatePath() == null) {
+            throw new IllegalArgumentException("Profile " + profile.getName() + " has no template");
+        }
+        List<Operation<?>> source = profile.getOperations() != null ? profile.getOperations() : Collections.emptyList();
+        List<CompiledOperation> operations = new ArrayList<>(source.size());
+        for (int i = 0; i < source.size(); i++) {
+            Operation<?> operation = source.get(i);
+            try {
+                operations.add(CompiledOperation.compile(operation));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Profile " + profile.getName() + ", operation " + (i + 1)
+                        + " (" + operation.getType() + "): " + e.getMessage(), e);
+            }
+        }
+        return new CompiledProfile(profile, operations);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getTemplatePath() {
+        return templatePath;
+    }
+
+    public NamingConvention getNamingConvention() {
+        return namingConvention;
+    }
+
+    public ReadMode getReadMode() {
+        return readMode;
+    }
+
+    public int getOutputRowWindow() {
+        return outputRowWindow;
+    }
+
+    public CompressionLevel getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Get the compiled operations in profile order
+     * @return unmodifiable {@link List}<{@link CompiledOperation}>
+     */
+    public List<CompiledOperation> getOperations() {
+        return operations;
+    }
+
+    /**
+     * Get the operations as they are executed.
+     * COPY_COLUMN operations with the same source and destination sheet are fused into one {@link CompiledOperation.CopyColumns},
+     * placed where the first of them was, so each source and target row is visited once instead of once per column.
+     * @return unmodifiable {@link List}<{@link CompiledOperation}>
+     */
+    public List<CompiledOperation> getExecutionPlan() {
+        return executionPlan;
+    }
+
+    /**
+     * Get the indexes of the source sheets the operations read, the other sheets of a source file are never touched
+     * @return int[] sorted sheet indexes
+     */
+    public int[] getSourceSheets() {
+        return sourceSheets.clone();
+    }
+
+    /**
+     * Get the columns of a source sheet that the operations read: the source columns of the column copies and split rows
+     * and the columns their headers come from.
+     * @param srcSheet
+     * @return int[] sorted column indexes, or null if an operation reads whole rows of the sheet
+     */
+    public int[] getSourceColumns(int srcSheet) {
+        Set<Integer> columns = new HashSet<>();
+        for (CompiledOperation operation : operations) {
+            if (operation.getSrcSheet() != srcSheet) {
+                continue;
+            }
+            if (operation instanceof CompiledOperation.CopyRows) {
+                return null;
+            }
+            if (operation instanceof CompiledOperation.CopyColumn) {
+                columns.add(((CompiledOperation.CopyColumn) operation).getSrcCol());
+            } else if (operation instanceof CompiledOperation.CopySplitRow) {
+                CompiledOperation.CopySplitRow copySplitRow = (CompiledOperation.CopySplitRow) operation;
+                for (int split = 0; split < copySplitRow.getSplits(); split++) {
+                    for (int col : copySplitRow.getSourceColumns()[split]) {
+                        columns.add(col);
+                    }
+                    if (copySplitRow.isIncludeHeaders()) {
+                        columns.add(copySplitRow.getHeaderColumn(split));
+                    }
+                }
+            }
+        }
+        return columns.stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+
+    //Helper methods
+    private static List<CompiledOperation> fuseColumnOperations(List<CompiledOperation> operations) {
+        // Each plan slot holds either an operation or the column operations fused into that slot
+        List<Object> plan = new ArrayList<>();
+        Map<Long, ColumnGroup> openGroups = new LinkedHashMap<>();
+
+        for (CompiledOperation operation : operations) {
+            if (!(operation instanceof CompiledOperation.CopyColumn)) {
+                // Column copies may not move past another operation writing the same sheet
+                closeGroups(openGroups, operation.getDstSheet());
+                plan.add(operation);
+                continue;
+            }
+            CompiledOperation.CopyColumn copyColumn = (CompiledOperation.CopyColumn) operation;
+            long sheetPair = ((long) copyColumn.getSrcSheet() << 32) | copyColumn.getDstSheet();
+            ColumnGroup group = openGroups.get(sheetPair);
+            if (group != null && isWrittenByOtherGroup(openGroups, group, copyColumn)) {
+                // Moving this copy up to its group would reorder it before a copy from another sheet into the same cells
+                openGroups.remove(sheetPair);
+                group = null;
+            }
+            if (group == null) {
+                group = new ColumnGroup(copyColumn.getDstSheet());
+                openGroups.put(sheetPair, group);
+                plan.add(group);
+            }
+            group.add(copyColumn);
+        }
+
+        List<CompiledOperation> executionPlan = new ArrayList<>(plan.size());
+        for (Object slot : plan) {
+            if (slot instanceof ColumnGroup) {
+                List<CompiledOperation.CopyColumn> columns = ((ColumnGroup) slot).operations;
+                executionPlan.add(columns.size() == 1 ? columns.get(0) : new CompiledOperation.CopyColumns(columns));
+            } else {
+                executionPlan.add((CompiledOperation) slot);
+            }
+        }
+        return executionPlan;
+    }
+
+    private static void closeGroups(Map<Long, ColumnGroup> openGroups, int dstSheet) {
+        Iterator<ColumnGroup> groups = openGroups.values().iterator();
+        while (groups.hasNext()) {
+            if (groups.next().dstSheet == dstSheet) {
+                groups.remove();
+            }
+        }
+    }
+
+    private static boolean isWrittenByOtherGroup(Map<Long, ColumnGroup> openGroups, ColumnGroup group, CompiledOperation.CopyColumn copyColumn) {
+        for (ColumnGroup other : openGroups.values()) {
+            if (other != group && other.dstSheet == copyColumn.getDstSheet() && other.dstCols.contains(copyColumn.getDstCol())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class ColumnGroup {
+        private final int dstSheet;
+        private final List<CompiledOperation.CopyColumn> operations = new ArrayList<>();
+        private final Set<Integer> dstCols = new HashSet<>();
+
+        ColumnGroup(int dstSheet) {
+            this.dstSheet = dstSheet;
+        }
+
+        void add(CompiledOperation.CopyColumn operation) {
+            operations.add(operation);
+            dstCols.add(operation.getDstCol());
+        }
+    }
+}
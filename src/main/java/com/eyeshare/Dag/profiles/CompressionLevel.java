@@ -0,0 +1,29 @@
+package com.eyeshare.Dag.profiles;
+
+import java.util.zip.Deflater;
+
+
+/**
+ * CompressionLevel
+ * Enum for how hard the parts written to an output file are compressed
+ * FAST is meant for intermediate outputs that are read again soon, MAX for outputs that are archived
+ */
+public enum CompressionLevel {
+    FAST(Deflater.BEST_SPEED),
+    DEFAULT(Deflater.DEFAULT_COMPRESSION),
+    MAX(Deflater.BEST_COMPRESSION);
+
+    private final int deflaterLevel;
+
+    CompressionLevel(int deflaterLevel) {
+        this.deflaterLevel = deflaterLevel;
+    }
+
+    /**
+     * Get the matching level of {@link Deflater}
+     * @return int level
+     */
+    public int getDeflaterLevel() {
+        return deflaterLevel;
+    }
+}
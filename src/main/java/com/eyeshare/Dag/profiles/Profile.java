@@ -13,10 +13,17 @@ public class Profile {
     private String description;
     private List<Operation<?>> operations;
     private NamingConvention namingConvention;
+    private ReadMode readMode;
+    private int outputRowWindow;
+    private CompressionLevel compressionLevel;
+    // Execution plan compiled from the fields above, not serialized
+    private transient CompiledProfile compiledProfile;
 
     public Profile(String name) {
         this.name = name;
         this.namingConvention = NamingConvention.PRESERVE_NAME;
+        this.readMode = ReadMode.AUTO;
+        this.compressionLevel = CompressionLevel.DEFAULT;
         this.operations = new ArrayList<>();
     }
 
@@ -42,6 +49,7 @@ public class Profile {
      */
     public void setTemplatePath(String templatePath) {
         this.templatePath = templatePath;
+        invalidateCompiledProfile();
     }
 
     /**
@@ -75,6 +83,64 @@ public class Profile {
      */
     public void setNamingConvention(NamingConvention namingConvention) {
         this.namingConvention = namingConvention;
+        invalidateCompiledProfile();
+    }
+
+    /**
+     * Get the read mode used for the source files
+     * Profiles saved before the read mode existed have no value and default to AUTO
+     * @return {@link ReadMode} readMode
+     */
+    public ReadMode getReadMode() {
+        return readMode != null ? readMode : ReadMode.AUTO;
+    }
+
+    /**
+     * Set the read mode used for the source files
+     * Read mode is represented by the {@link ReadMode} enum
+     * @param readMode
+     */
+    public void setReadMode(ReadMode readMode) {
+        this.readMode = readMode;
+        invalidateCompiledProfile();
+    }
+
+    /**
+     * Get the number of output rows kept in memory per sheet when the output is streamed
+     * 0 means the output workbook is kept in memory until it is saved
+     * @return int outputRowWindow
+     */
+    public int getOutputRowWindow() {
+        return outputRowWindow;
+    }
+
+    /**
+     * Set the number of output rows kept in memory per sheet when the output is streamed
+     * Use 0 to keep the output workbook in memory until it is saved
+     * @param outputRowWindow
+     */
+    public void setOutputRowWindow(int outputRowWindow) {
+        this.outputRowWindow = outputRowWindow;
+        invalidateCompiledProfile();
+    }
+
+    /**
+     * Get the compression level of the output files
+     * Profiles saved before the compression level existed have no value and default to DEFAULT
+     * @return {@link CompressionLevel} compressionLevel
+     */
+    public CompressionLevel getCompressionLevel() {
+        return compressionLevel != null ? compressionLevel : CompressionLevel.DEFAULT;
+    }
+
+    /**
+     * Set the compression level of the output files
+     * Compression level is represented by the {@link CompressionLevel} enum
+     * @param compressionLevel
+     */
+    public void setCompressionLevel(CompressionLevel compressionLevel) {
+        this.compressionLevel = compressionLevel;
+        invalidateCompiledProfile();
     }
 
     /**
@@ -83,6 +149,7 @@ public class Profile {
      */
     public void setName(String name) {
         this.name = name;
+        invalidateCompiledProfile();
     }
 
     /**
@@ -100,6 +167,7 @@ public class Profile {
      */
     public void setOperations(List<Operation<?>> operations) {
         this.operations = operations;
+        invalidateCompiledProfile();
     }
 
     /**
@@ -110,5 +178,26 @@ public class Profile {
      */
     public void addOperation(Operation<?> operation) {
         this.operations.add(operation);
+        invalidateCompiledProfile();
+    }
+
+    /**
+     * Get the compiled execution plan of this profile
+     * The plan is compiled on first use and kept until the profile is changed through one of its setters
+     * @return {@link CompiledProfile}
+     * @throws IllegalArgumentException if an operation is invalid
+     */
+    public synchronized CompiledProfile getCompiledProfile() {
+        if (compiledProfile == null) {
+            compiledProfile = CompiledProfile.compile(this);
+        }
+        return compiledProfile;
+    }
+
+    /**
+     * Drops the compiled execution plan, used after the list returned by {@link #getOperations()} was changed directly
+     */
+    synchronized void invalidateCompiledProfile() {
+        compiledProfile = null;
     }
-}
\ No newline at end of file
+}
@@ -9,17 +9,22 @@ import com.google.gson.reflect.TypeToken;
 import java.io.*;
 import java.lang.reflect.Type;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 
 
 /**
  * ProfileManager
  * Manages the profiles
+ * Parsed profiles are cached by name and only read again when their file changes on disk
  * Singleton class
  */
 public class ProfileManager {
@@ -28,10 +33,12 @@ public class ProfileManager {
     private static final String TEMPLATES_DIR = APP_DIR + "/templates";
     private List<String> profileNames;
     private Gson gson;
+    private final ConcurrentMap<String, CachedProfile> profileCache;
 
 
     public ProfileManager() {
         this.profileNames = new ArrayList<>();
+        this.profileCache = new ConcurrentHashMap<>();
         
         GsonBuilder gsonBuilder = new GsonBuilder();
         gsonBuilder.registerTypeAdapter(Operation.class, new OperationDeserializer());
@@ -62,19 +69,35 @@ public class ProfileManager {
 
     /**
      * Given a profile name as a String returns a {@link Profile} object representing the profile
+     * The profile is parsed once and cached, it is only read again when the modification time or size of its file changes.
+     * The returned object is shared, changes to it are kept once they are saved with {@link #updateProfile(Profile)}
      * @param name
      * @return Profile
      */
     public Profile loadProfile(String name) {
+        Path path = Paths.get(getProfilePath(name));
         try {
-            FileReader reader = new FileReader(getProfilePath(name));
-            Type profileType = new TypeToken<Profile>() {}.getType();
-            Profile profile = gson.fromJson(reader, profileType);
-            reader.close();
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            long size = attributes.size();
+
+            CachedProfile cached = profileCache.get(name);
+            if (cached != null && cached.lastModified == lastModified && cached.size == size) {
+                return cached.profile;
+            }
+            Profile profile;
+            try (Reader reader = Files.newBufferedReader(path)) {
+                Type profileType = new TypeToken<Profile>() {}.getType();
+                profile = gson.fromJson(reader, profileType);
+            }
+            if (profile != null) {
+                profileCache.put(name, new CachedProfile(profile, lastModified, size));
+            }
             return profile;
-        } catch (FileNotFoundException e) {
+        } catch (NoSuchFileException e) {
+            profileCache.remove(name);
             System.out.println("Profile file not found: " + name);
-            e.printStackTrace();  // Print stack trace for FileNotFoundException
+            e.printStackTrace();  // Print stack trace for NoSuchFileException
             return null;
         } catch (IOException e) {
             System.out.println("Error reading profile file: " + e.getMessage());
@@ -83,6 +106,19 @@ public class ProfileManager {
         }
     }
 
+    /**
+     * Given the path to a profile JSON file as a String returns a {@link Profile} object representing the profile
+     * The file does not have to be in the profiles directory
+     * @param filePath
+     * @return Profile
+     * @throws IOException if the file cannot be read
+     */
+    public Profile loadProfileFromFile(String filePath) throws IOException {
+        try (Reader reader = Files.newBufferedReader(Paths.get(filePath))) {
+            return gson.fromJson(reader, Profile.class);
+        }
+    }
+
     /**
      * Adds a profile to the list of profiles and saves it to a file
      * @param profile
@@ -99,6 +135,7 @@ public class ProfileManager {
      */
     public void removeProfile(String name) {
         profileNames.remove(name);
+        profileCache.remove(name);
         try {
             Files.delete(Paths.get(getProfilePath(name)));
         } catch (IOException e) {
@@ -269,12 +306,19 @@ public class ProfileManager {
     
 
     private void saveProfile(Profile profile) {
+        // The GUI edits the operations list in place before saving
+        profile.invalidateCompiledProfile();
+        Path path = Paths.get(getProfilePath(profile.getName()));
         try {
-            FileWriter writer = new FileWriter(getProfilePath(profile.getName()));
+            FileWriter writer = new FileWriter(path.toFile());
             gson.toJson(profile, writer);
             writer.flush();
             writer.close();
+
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            profileCache.put(profile.getName(), new CachedProfile(profile, attributes.lastModifiedTime().toMillis(), attributes.size()));
         } catch (IOException e) {
+            profileCache.remove(profile.getName());
             System.out.println("Error saving profile: " + e.getMessage());
         }
     }
@@ -282,4 +326,16 @@ public class ProfileManager {
     private String getProfilePath(String name) {
         return PROFILES_DIR + File.separator + name + ".json";
     }
-}
\ No newline at end of file
+
+    private static final class CachedProfile {
+        private final Profile profile;
+        private final long lastModified;
+        private final long size;
+
+        CachedProfile(Profile profile, long lastModified, long size) {
+            this.profile = profile;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+    }
+}
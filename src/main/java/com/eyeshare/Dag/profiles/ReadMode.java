@@ -0,0 +1,15 @@
+package com.eyeshare.Dag.profiles;
+
+
+/**
+ * ReadMode
+ * Enum for how the source files of a profile are read
+ * AUTO picks the streaming reader for large .xlsx files and the DOM reader otherwise
+ * COLUMNAR streams each source sheet once into a compact column store that all operations read from, see ColumnarSheet
+ */
+public enum ReadMode {
+    AUTO,
+    DOM,
+    STREAMING,
+    COLUMNAR,
+}
@@ -5,15 +5,16 @@ import javax.swing.border.LineBorder;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 
-import com.eyeshare.Dag.functionality.ExcelReformatter;
+import com.eyeshare.Dag.functionality.BatchExecutor;
+import com.eyeshare.Dag.functionality.BatchExecutor.FileResult;
 import com.eyeshare.Dag.profiles.ProfileManager;
-import com.eyeshare.Dag.profiles.NamingConvention;
 import com.eyeshare.Dag.profiles.Profile;
 
 import java.awt.*;
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class MainPanel extends JPanel {
     // Managers
@@ -36,6 +37,10 @@ public class MainPanel extends JPanel {
     private JComboBox<String> profileComboBox;
     private JButton manageProfilesButton;
     private JButton applyProfileButton;
+    private JProgressBar progressBar;
+
+    // Batch currently running, null when idle
+    private BatchExecutor runningBatch;
 
     public MainPanel(ProfileManager profileManager, MainFrame mainFrame) {
         this.mainFrame = mainFrame;
@@ -134,9 +139,20 @@ public class MainPanel extends JPanel {
         gbc.fill = GridBagConstraints.NONE;
         add(rightButtonsPanel, gbc);
     
+        // Progress Bar
+        progressBar = new JProgressBar();
+        progressBar.setStringPainted(true);
+        progressBar.setString("");
+        gbc.gridx = 0;
+        gbc.gridy = 2;
+        gbc.gridwidth = 2;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        add(progressBar, gbc);
+
         // Apply Profile Button
         applyProfileButton = new JButton("Apply Profile");
         applyProfileButton.addActionListener(e -> applyProfile());
+        gbc.fill = GridBagConstraints.NONE;
         gbc.gridx = 0;
         gbc.gridy = 3;
         gbc.gridwidth = 2;
@@ -197,19 +213,80 @@ public class MainPanel extends JPanel {
     }
 
     private void applyProfile() {
+        // While a batch is running the button cancels it
+        if (runningBatch != null) {
+            runningBatch.cancel();
+            applyProfileButton.setEnabled(false);
+            return;
+        }
+
         Profile selectedProfile = profileManager.loadProfile((String) profileComboBox.getSelectedItem());
-    
-        // Iterate over the selected files and apply the profile
-        for (int i = 0; i < selectedFiles.length; i++) {
-            File inputFile = selectedFiles[i];
-            String outputFileName = getOutputFileName(inputFile, selectedProfile.getNamingConvention(), null, i + 1);
-            try {
-                ExcelReformatter reformatter = new ExcelReformatter(inputFile.getAbsolutePath(), selectedProfile);
-                reformatter.applyProfile();
-                reformatter.saveOutputWorkbook(destinationFolder.getAbsolutePath() + "/" + outputFileName);
-            } catch (IOException e) {
-                JOptionPane.showMessageDialog(this, "Error processing file: " + inputFile.getName() + "\n" + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        if (selectedProfile == null || selectedFiles.length == 0) {
+            return;
+        }
+
+        BatchExecutor batch;
+        try {
+            batch = new BatchExecutor(selectedProfile, destinationFolder, 0);
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, "Invalid profile:\n" + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        List<File> inputFiles = Arrays.asList(selectedFiles);
+        runningBatch = batch;
+        applyProfileButton.setText("Cancel");
+        progressBar.setMaximum(inputFiles.size());
+        progressBar.setValue(0);
+        progressBar.setString("0/" + inputFiles.size() + " files");
+
+        // Run the batch off the Event Dispatch Thread so the GUI stays responsive
+        SwingWorker<List<FileResult>, Void> worker = new SwingWorker<>() {
+            @Override
+            protected List<FileResult> doInBackground() throws Exception {
+                return batch.run(inputFiles, (result, completed, total, filesPerSecond) ->
+                        SwingUtilities.invokeLater(() -> {
+                            progressBar.setValue(completed);
+                            progressBar.setString(String.format("%d/%d files - %.1f files/s", completed, total, filesPerSecond));
+                        }));
             }
+
+            @Override
+            protected void done() {
+                runningBatch = null;
+                applyProfileButton.setText("Apply Profile");
+                applyProfileButton.setEnabled(true);
+                try {
+                    showBatchErrors(get());
+                } catch (Exception e) {
+                    JOptionPane.showMessageDialog(MainPanel.this, "Error processing files:\n" + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        worker.execute();
+    }
+
+    private void showBatchErrors(List<FileResult> results) {
+        StringBuilder errors = new StringBuilder();
+        int cancelled = 0;
+        int resumed = 0;
+        for (FileResult result : results) {
+            if (result.isCancelled()) {
+                cancelled++;
+            } else if (result.isSkipped()) {
+                resumed++;
+            } else if (!result.isSuccess()) {
+                errors.append("Error processing file: ").append(result.getInputFile().getName())
+                        .append("\n").append(result.getError().getMessage()).append("\n");
+            }
+        }
+        if (resumed > 0) {
+            progressBar.setString(progressBar.getString() + " - " + resumed + " already done by an interrupted run");
+        }
+        if (cancelled > 0) {
+            progressBar.setString(progressBar.getString() + " - " + cancelled + " cancelled");
+        }
+        if (errors.length() > 0) {
+            JOptionPane.showMessageDialog(this, errors.toString(), "Error", JOptionPane.ERROR_MESSAGE);
         }
     }
 
@@ -242,25 +319,6 @@ public class MainPanel extends JPanel {
         }
     }
 
-    private String getOutputFileName(File inputFile, NamingConvention namingConvention, String customNamePrefix, int fileNumber) {
-        String outputFileName;
-        String fileName = inputFile.getName();
-        int extensionIndex = fileName.lastIndexOf('.');
-        String fileNameWithoutExtension = extensionIndex == -1 ? fileName : fileName.substring(0, extensionIndex);
-        String extension = extensionIndex == -1 ? "" : fileName.substring(extensionIndex + 1);
-    
-        switch (namingConvention) {
-            case PRESERVE_NAME:
-                outputFileName = fileNameWithoutExtension + "_" + fileNumber + "." + extension;
-                break;
-            case CUSTOM_NAME:
-                outputFileName = customNamePrefix + "_" + fileNumber + "." + extension;
-                break;
-            default:
-                throw new IllegalArgumentException("Unsupported naming convention: " + namingConvention);
-        }
-        return outputFileName;
-    }
 
 
     
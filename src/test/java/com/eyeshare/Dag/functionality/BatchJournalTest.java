@@ -0,0 +1,116 @@
+package com.eyeshare.Dag.functionality;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Records outputs, cuts the journal off the way a crash does and resumes from it
+ */
+public class BatchJournalTest extends TestCase {
+    private static final String BATCH = "batch";
+
+    private Path folder;
+    private File first;
+    private File second;
+
+    @Override
+    protected void setUp() throws IOException {
+        folder = Files.createTempDirectory("batch-journal");
+        first = write("first_1.xlsx", "first output");
+        second = write("second_2.xlsx", "second output");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    public void testResumesFromTheRecordedOutputs() throws IOException {
+        try (BatchJournal journal = BatchJournal.open(folder.toFile(), BATCH, true)) {
+            assertEquals(0, journal.getRecoveredCount());
+            journal.record(first, 10, 40);
+        }
+        try (BatchJournal journal = BatchJournal.open(folder.toFile(), BATCH, true)) {
+            assertEquals(1, journal.getRecoveredCount());
+            BatchJournal.Entry entry = journal.getCompletedEntry(first);
+            assertNotNull(entry);
+            assertEquals(10, entry.getRows());
+            assertEquals(40, entry.getCells());
+            assertNull(journal.getCompletedEntry(second));
+        }
+    }
+
+    public void testHalfWrittenLastLineIsCutOff() throws IOException {
+        try (BatchJournal journal = BatchJournal.open(folder.toFile(), BATCH, true)) {
+            journal.record(first, 10, 40);
+            journal.record(second, 20, 80);
+        }
+        // The batch died while the second line was written
+        Path log = getLog();
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 15);
+        }
+
+        try (BatchJournal journal = BatchJournal.open(folder.toFile(), BATCH, true)) {
+            assertEquals(1, journal.getRecoveredCount());
+            assertNotNull(journal.getCompletedEntry(first));
+            assertNull(journal.getCompletedEntry(second));
+            journal.record(second, 20, 80);
+        }
+        // The entry written after the crash does not run into the cut off line
+        try (BatchJournal journal = BatchJournal.open(folder.toFile(), BATCH, true)) {
+            assertEquals(2, journal.getRecoveredCount());
+            assertNotNull(journal.getCompletedEntry(second));
+        }
+        for (String line : Files.readAllLines(log, StandardCharsets.UTF_8)) {
+            assertTrue(line, line.startsWith("{") && line.endsWith("}"));
+        }
+    }
+
+    public void testChangedOutputIsMadeAgain() throws IOException {
+        try (BatchJournal journal = BatchJournal.open(folder.toFile(), BATCH, true)) {
+            journal.record(first, 10, 40);
+        }
+        Files.write(first.toPath(), "first outpux".getBytes(StandardCharsets.UTF_8));
+
+        try (BatchJournal journal = BatchJournal.open(folder.toFile(), BATCH, true)) {
+            assertEquals(1, journal.getRecoveredCount());
+            assertNull(journal.getCompletedEntry(first));
+        }
+    }
+
+    public void testCompleteBatchAndRestartStartOver() throws IOException {
+        BatchJournal journal = BatchJournal.open(folder.toFile(), BATCH, true);
+        journal.record(first, 10, 40);
+        journal.close(true);
+        assertFalse(Files.exists(getLog()));
+
+        try (BatchJournal resumed = BatchJournal.open(folder.toFile(), BATCH, true)) {
+            resumed.record(first, 10, 40);
+        }
+        try (BatchJournal restarted = BatchJournal.open(folder.toFile(), BATCH, false)) {
+            assertEquals(0, restarted.getRecoveredCount());
+        }
+    }
+
+
+    //Helper methods
+    private File write(String name, String content) throws IOException {
+        return Files.write(folder.resolve(name), content.getBytes(StandardCharsets.UTF_8)).toFile();
+    }
+
+    private Path getLog() {
+        return folder.resolve(BatchJournal.FILE_PREFIX + BATCH + ".log");
+    }
+}
@@ -0,0 +1,110 @@
+package com.eyeshare.Dag.functionality;
+
+import junit.framework.TestCase;
+
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that a full stage holds back the submitter and that every item leaves through its future, however it ends
+ */
+public class BatchPipelineTest extends TestCase {
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private BatchPipeline<String> pipeline;
+
+    @Override
+    protected void tearDown() {
+        if (pipeline != null) {
+            pipeline.shutdownNow();
+        }
+    }
+
+    public void testFullQueueHoldsBackTheSubmitter() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        pipeline = new BatchPipeline<String>().addStage("slow", item -> {
+            release.await();
+            return true;
+        }, 1, 1);
+        CompletableFuture<String> running = pipeline.submit("a");
+        CompletableFuture<String> queued = pipeline.submit("b");
+
+        CompletableFuture<CompletableFuture<String>> third = CompletableFuture.supplyAsync(() -> pipeline.submit("c"));
+        try {
+            third.get(300, TimeUnit.MILLISECONDS);
+            fail("the third item was accepted while the stage and its queue were full");
+        } catch (TimeoutException e) {
+            // Waiting for room in the queue
+        }
+
+        release.countDown();
+        assertEquals("a", running.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("b", queued.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("c", third.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Map<String, Object> stats = pipeline.getStats().get("slow");
+        assertEquals(3L, stats.get("processed"));
+        assertTrue((Integer) stats.get("maxQueueDepth") <= 1);
+    }
+
+    public void testFailedItemLeavesThePipelineAndOthersContinue() throws Exception {
+        AtomicInteger written = new AtomicInteger();
+        pipeline = new BatchPipeline<String>()
+                .addStage("transform", item -> {
+                    if (item.equals("bad")) {
+                        throw new IllegalStateException("broken file");
+                    }
+                    return !item.equals("skipped");
+                }, 2, 2)
+                .addStage("write", item -> {
+                    written.incrementAndGet();
+                    return false;
+                }, 1, 2);
+        CompletableFuture<String> good = pipeline.submit("good");
+        CompletableFuture<String> bad = pipeline.submit("bad");
+        CompletableFuture<String> skipped = pipeline.submit("skipped");
+
+        try {
+            bad.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            fail("the failed item completed normally");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals("good", good.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("skipped", skipped.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, written.get());
+    }
+
+    public void testShutdownCompletesTheWaitingItems() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        pipeline = new BatchPipeline<String>().addStage("stuck", item -> {
+            started.countDown();
+            new CountDownLatch(1).await();
+            return true;
+        }, 1, 1);
+        CompletableFuture<String> running = pipeline.submit("a");
+        CompletableFuture<String> queued = pipeline.submit("b");
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        pipeline.shutdownNow();
+        try {
+            queued.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            fail("the waiting item completed normally");
+        } catch (CancellationException e) {
+            // Dropped from the queue
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CancellationException);
+        }
+        try {
+            running.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            fail("the interrupted item completed normally");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof InterruptedException);
+        }
+    }
+}
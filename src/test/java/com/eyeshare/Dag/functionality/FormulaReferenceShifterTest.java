@@ -0,0 +1,28 @@
+package com.eyeshare.Dag.functionality;
+
+import junit.framework.TestCase;
+
+public class FormulaReferenceShifterTest extends TestCase {
+
+    public void testRelativeReferencesMove() {
+        assertEquals("B3*2", FormulaReferenceShifter.shift("B2*2", 1, 0));
+        assertEquals("SUM(C5:D9)", FormulaReferenceShifter.shift("SUM(A1:B5)", 4, 2));
+    }
+
+    public void testAbsolutePartsStay() {
+        assertEquals("$A$1+B$1+$A3", FormulaReferenceShifter.shift("$A$1+A$1+$A1", 2, 1));
+    }
+
+    public void testLiteralsFunctionsAndSheetNamesStay() {
+        assertEquals("IF(A2>1,\"A1\",'A1 data'!B2)&LOG10(2)", FormulaReferenceShifter.shift("IF(A1>1,\"A1\",'A1 data'!B1)&LOG10(2)", 1, 0));
+        assertEquals("Data!C4*1.5", FormulaReferenceShifter.shift("Data!C3*1.5", 1, 0));
+    }
+
+    public void testWholeColumnAndRowRanges() {
+        assertEquals("SUM(B:B)+SUM(4:5)", FormulaReferenceShifter.shift("SUM(A:A)+SUM(3:4)", 1, 1));
+    }
+
+    public void testReferencesMovedOffTheSheetBecomeRefErrors() {
+        assertEquals("#REF!+1", FormulaReferenceShifter.shift("A1+1", -1, 0));
+    }
+}
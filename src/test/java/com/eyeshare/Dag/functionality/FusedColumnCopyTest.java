@@ -0,0 +1,185 @@
+package com.eyeshare.Dag.functionality;
+
+import com.eyeshare.Dag.profiles.ReadMode;
+
+import junit.framework.TestCase;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.FillPatternType;
+import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Copies columns of different lengths fused and one by one in every read mode and compares the outputs
+ */
+public class FusedColumnCopyTest extends TestCase {
+    private static final String TEMPLATE = "templates/fused-column-copy.xlsx";
+    private static final int TEMPLATE_ROW = 22;
+
+    private String userHome;
+    private Path folder;
+
+    @Override
+    protected void setUp() throws IOException {
+        // Templates are resolved in the application folder of the user's home
+        userHome = System.getProperty("user.home");
+        folder = Files.createTempDirectory("fused-column-copy");
+        System.setProperty("user.home", folder.toString());
+        Path template = folder.resolve(".excelreformatter").resolve(TEMPLATE);
+        Files.createDirectories(template.getParent());
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            Sheet sheet = workbook.createSheet("Output");
+            sheet.createRow(0).createCell(0).setCellValue("Header");
+            // Below the data of source column 1, must survive the copy of that column
+            sheet.createRow(TEMPLATE_ROW).createCell(1).setCellValue("template");
+            save(workbook, template);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        System.setProperty("user.home", userHome);
+        TemplateCache.getInstance().clear();
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    public void testFusedCopyMatchesSeparateCopiesInEveryReadMode() throws IOException {
+        File source = writeSource(30);
+        // Column 2 is written by the long column 3 and then by the short column 2, column 3 the other way round
+        int[] srcCols = {0, 1, 3, 2, 1, 0};
+        int[] dstCols = {0, 1, 2, 2, 3, 3};
+        for (ReadMode readMode : new ReadMode[] {ReadMode.DOM, ReadMode.STREAMING, ReadMode.COLUMNAR}) {
+            File separate = copy(source, readMode, srcCols, dstCols, false);
+            File fused = copy(source, readMode, srcCols, dstCols, true);
+            assertSameCells(readMode.name(), separate, fused);
+
+            try (XSSFWorkbook output = open(fused)) {
+                XSSFSheet sheet = output.getSheetAt(0);
+                assertEquals(readMode.name(), "template", sheet.getRow(TEMPLATE_ROW).getCell(1).getStringCellValue());
+                // Below the end of source column 2 the values of source column 3 stay
+                assertEquals(readMode.name(), 20.0, sheet.getRow(20).getCell(2).getNumericCellValue());
+                assertEquals(readMode.name(), "r20c0", sheet.getRow(20).getCell(3).getStringCellValue());
+            }
+        }
+    }
+
+    public void testFusedStreamingCopyOfManyRowsMatchesSeparateCopies() throws IOException {
+        // More rows than a streamed copy holds back, so the rest of the sheet is read twice
+        File source = writeSource(10_100);
+        int[] srcCols = {1, 0};
+        int[] dstCols = {0, 1};
+        File separate = copy(source, ReadMode.STREAMING, srcCols, dstCols, false);
+        File fused = copy(source, ReadMode.STREAMING, srcCols, dstCols, true);
+        assertSameCells(ReadMode.STREAMING.name(), separate, fused);
+    }
+
+
+    //Helper methods
+    /**
+     * Column 0 has data in every row, column 1 down to row 8 and a formatted blank cell in row 12, column 2 down to row 3
+     * and in row 15, column 3 numbers in every row. The last rows are formatted but empty.
+     */
+    private File writeSource(int dataRows) throws IOException {
+        File source = folder.resolve("source-" + dataRows + ".xlsx").toFile();
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            CellStyle filled = workbook.createCellStyle();
+            filled.setFillForegroundColor(IndexedColors.YELLOW.getIndex());
+            filled.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+            Sheet sheet = workbook.createSheet("Data");
+            Row header = sheet.createRow(0);
+            for (int c = 0; c < 4; c++) {
+                header.createCell(c).setCellValue("Column " + c);
+            }
+            for (int r = 1; r <= dataRows; r++) {
+                Row row = sheet.createRow(r);
+                row.createCell(0).setCellValue("r" + r + "c0");
+                if (r <= 8) {
+                    row.createCell(1).setCellValue("r" + r + "c1");
+                } else if (r == 12) {
+                    row.createCell(1).setCellStyle(filled);
+                }
+                if (r <= 3 || r == 15) {
+                    row.createCell(2).setCellValue("r" + r + "c2");
+                }
+                row.createCell(3).setCellValue(r);
+            }
+            for (int r = dataRows + 1; r <= dataRows + 5; r++) {
+                sheet.createRow(r).createCell(0).setCellStyle(filled);
+            }
+            save(workbook, source.toPath());
+        }
+        return source;
+    }
+
+    private File copy(File source, ReadMode readMode, int[] srcCols, int[] dstCols, boolean fused) throws IOException {
+        File output = folder.resolve(readMode + (fused ? "-fused-" : "-separate-") + source.getName()).toFile();
+        try (ExcelHandler handler = new ExcelHandler(source.getAbsolutePath(), TEMPLATE, readMode, 0)) {
+            if (fused) {
+                handler.copyColumns(0, srcCols, 0, dstCols, 1);
+            } else {
+                for (int c = 0; c < srcCols.length; c++) {
+                    handler.copyColumn(0, srcCols[c], 0, dstCols[c], 1);
+                }
+            }
+            handler.saveOutputWorkbook(output.getAbsolutePath());
+        }
+        return output;
+    }
+
+    private static void assertSameCells(String readMode, File expected, File actual) throws IOException {
+        try (XSSFWorkbook expectedWorkbook = open(expected); XSSFWorkbook actualWorkbook = open(actual)) {
+            Sheet expectedSheet = expectedWorkbook.getSheetAt(0);
+            Sheet actualSheet = actualWorkbook.getSheetAt(0);
+            assertEquals(readMode, expectedSheet.getLastRowNum(), actualSheet.getLastRowNum());
+            for (int r = 0; r <= expectedSheet.getLastRowNum(); r++) {
+                Row expectedRow = expectedSheet.getRow(r);
+                Row actualRow = actualSheet.getRow(r);
+                assertEquals(readMode + " row " + r, expectedRow == null, actualRow == null);
+                if (expectedRow == null) {
+                    continue;
+                }
+                for (int c = 0; c < 4; c++) {
+                    assertSameCell(readMode + " row " + r + " column " + c, expectedRow.getCell(c), actualRow.getCell(c));
+                }
+            }
+        }
+    }
+
+    private static void assertSameCell(String message, Cell expected, Cell actual) {
+        assertEquals(message, expected == null, actual == null);
+        if (expected == null) {
+            return;
+        }
+        assertEquals(message, expected.getCellType(), actual.getCellType());
+        assertEquals(message, expected.toString(), actual.toString());
+        assertEquals(message, expected.getCellStyle().getFillPattern(), actual.getCellStyle().getFillPattern());
+    }
+
+    private static XSSFWorkbook open(File file) throws IOException {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return new XSSFWorkbook(in);
+        }
+    }
+
+    private static void save(Workbook workbook, Path path) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path)) {
+            workbook.write(out);
+        }
+    }
+}
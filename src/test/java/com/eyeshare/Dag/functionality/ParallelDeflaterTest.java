@@ -0,0 +1,148 @@
+package com.eyeshare.Dag.functionality;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Inflates what ParallelDeflater writes and compares it byte by byte with the input
+ */
+public class ParallelDeflaterTest extends TestCase {
+    private static final int CHUNK_SIZE = 128 * 1024;
+    private static final int[] LEVELS = {Deflater.DEFAULT_COMPRESSION, Deflater.NO_COMPRESSION, Deflater.BEST_SPEED, 6, Deflater.BEST_COMPRESSION};
+
+    private ExecutorService executor;
+
+    @Override
+    protected void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @Override
+    protected void tearDown() {
+        executor.shutdownNow();
+    }
+
+    public void testCompressibleData() throws DataFormatException {
+        byte[] data = sheetXml(5 * CHUNK_SIZE + 1234);
+        for (int level : LEVELS) {
+            assertRoundTrip(data, data.length, level);
+        }
+    }
+
+    public void testRandomData() throws DataFormatException {
+        byte[] data = new byte[4 * CHUNK_SIZE + 17];
+        new Random(42).nextBytes(data);
+        for (int level : LEVELS) {
+            assertRoundTrip(data, data.length, level);
+        }
+    }
+
+    public void testMixedData() throws DataFormatException {
+        // Incompressible runs inside compressible data, crossing the chunk boundaries
+        byte[] data = sheetXml(6 * CHUNK_SIZE);
+        Random random = new Random(7);
+        for (int start = CHUNK_SIZE - 5000; start < data.length; start += CHUNK_SIZE) {
+            byte[] noise = new byte[Math.min(10_000, data.length - start)];
+            random.nextBytes(noise);
+            System.arraycopy(noise, 0, data, start, noise.length);
+        }
+        for (int level : LEVELS) {
+            assertRoundTrip(data, data.length, level);
+        }
+    }
+
+    public void testChunkBoundaries() throws DataFormatException {
+        byte[] data = sheetXml(4 * CHUNK_SIZE + 1);
+        // Single threaded up to two chunks, then whole chunks, a one byte last chunk and a partial one
+        int[] lengths = {0, 1, 2 * CHUNK_SIZE, 2 * CHUNK_SIZE + 1, 3 * CHUNK_SIZE, 4 * CHUNK_SIZE - 1, 4 * CHUNK_SIZE + 1};
+        for (int length : lengths) {
+            assertRoundTrip(data, length, Deflater.DEFAULT_COMPRESSION);
+        }
+    }
+
+    public void testLengthShorterThanData() throws DataFormatException {
+        byte[] data = sheetXml(5 * CHUNK_SIZE);
+        // The bytes past the length must not end up in the stream
+        Arrays.fill(data, 3 * CHUNK_SIZE + 100, data.length, (byte) 'x');
+        byte[] inflated = inflate(ParallelDeflater.deflate(data, 3 * CHUNK_SIZE + 100, 6, executor));
+        assertTrue(Arrays.equals(Arrays.copyOf(data, 3 * CHUNK_SIZE + 100), inflated));
+    }
+
+    public void testDictionaryKeepsRatio() throws DataFormatException {
+        // A random block repeated over the whole buffer, every chunk but the first only compresses well with the dictionary
+        byte[] block = new byte[2000];
+        new Random(3).nextBytes(block);
+        byte[] data = new byte[6 * CHUNK_SIZE];
+        for (int i = 0; i < data.length; i += block.length) {
+            System.arraycopy(block, 0, data, i, Math.min(block.length, data.length - i));
+        }
+        byte[] parallel = assertRoundTrip(data, data.length, 6);
+        byte[] single = deflate(data, 6);
+        assertTrue("parallel " + parallel.length + " bytes, single threaded " + single.length,
+                parallel.length <= single.length + 6 * 64);
+    }
+
+
+    //Helper methods
+    private byte[] assertRoundTrip(byte[] data, int length, int level) throws DataFormatException {
+        byte[] compressed = ParallelDeflater.deflate(data, length, level, executor);
+        byte[] inflated = inflate(compressed);
+        assertEquals("length " + length + " level " + level, length, inflated.length);
+        assertTrue("length " + length + " level " + level, Arrays.equals(Arrays.copyOf(data, length), inflated));
+        return compressed;
+    }
+
+    private static byte[] inflate(byte[] compressed) throws DataFormatException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+            byte[] buffer = new byte[64 * 1024];
+            while (!inflater.finished()) {
+                int read = inflater.inflate(buffer);
+                if (read == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    fail("The stream ends before its last block");
+                }
+                out.write(buffer, 0, read);
+            }
+            assertEquals("Bytes after the end of the stream", 0, inflater.getRemaining());
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] deflate(byte[] data, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] sheetXml(int length) {
+        StringBuilder xml = new StringBuilder(length + 100);
+        for (int row = 1; xml.length() < length; row++) {
+            xml.append("<row r=\"").append(row).append("\"><c r=\"A").append(row).append("\"><v>").append(row * 37 % 1009)
+                    .append("</v></c><c r=\"B").append(row).append("\" t=\"s\"><v>").append(row % 50).append("</v></c></row>");
+        }
+        return Arrays.copyOf(xml.toString().getBytes(StandardCharsets.US_ASCII), length);
+    }
+}
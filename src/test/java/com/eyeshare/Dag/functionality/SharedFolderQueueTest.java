@@ -0,0 +1,102 @@
+package com.eyeshare.Dag.functionality;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Two instances sharing a queue in a temp folder: claims, heartbeats, takeover of an expired lease and completion
+ */
+public class SharedFolderQueueTest extends TestCase {
+    private static final String BATCH = "batch";
+    private static final String KEY = "input_1.xlsx";
+
+    private Path folder;
+    private SharedFolderQueue first;
+    private SharedFolderQueue second;
+
+    @Override
+    protected void setUp() throws IOException {
+        folder = Files.createTempDirectory("shared-folder-queue");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        if (first != null) {
+            first.close();
+        }
+        if (second != null) {
+            second.close();
+        }
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    public void testOnlyOneInstanceClaims() throws IOException {
+        first = open("first", SharedFolderQueue.DEFAULT_LEASE_MILLIS);
+        second = open("second", SharedFolderQueue.DEFAULT_LEASE_MILLIS);
+
+        assertTrue(first.tryClaim(KEY));
+        assertFalse(second.tryClaim(KEY));
+        assertTrue(first.isHeld(KEY));
+        assertFalse(second.isHeld(KEY));
+    }
+
+    public void testHeartbeatKeepsTheLease() throws Exception {
+        first = open("first", 200);
+        second = open("second", 200);
+
+        assertTrue(first.tryClaim(KEY));
+        // Several lease times pass, the heartbeat of the first instance touches the lease every 50 ms
+        Thread.sleep(600);
+        assertFalse(second.tryClaim(KEY));
+        assertTrue(first.isHeld(KEY));
+    }
+
+    public void testExpiredLeaseIsTakenOverAndTheOldResultDropped() throws IOException {
+        // The first instance hangs: its heartbeat would only run after an hour
+        first = open("first", TimeUnit.HOURS.toMillis(1));
+        second = open("second", 1000);
+
+        assertTrue(first.tryClaim(KEY));
+        assertFalse(second.tryClaim(KEY));
+        Path lease = folder.resolve(SharedFolderQueue.FOLDER_NAME).resolve(BATCH).resolve("leases").resolve(KEY + ".lease");
+        Files.setLastModifiedTime(lease, FileTime.fromMillis(System.currentTimeMillis() - 10_000));
+
+        assertTrue(second.tryClaim(KEY));
+        assertFalse(first.isHeld(KEY));
+        assertFalse("an instance that lost its lease recorded the output", first.complete(KEY));
+        assertFalse(first.isComplete(KEY));
+        assertTrue(second.isHeld(KEY));
+
+        assertTrue(second.complete(KEY));
+        assertTrue(first.isComplete(KEY));
+        assertFalse(first.tryClaim(KEY));
+    }
+
+    public void testReleasedFileIsNotCompleteAndCanBeClaimedAgain() throws IOException {
+        first = open("first", SharedFolderQueue.DEFAULT_LEASE_MILLIS);
+        second = open("second", SharedFolderQueue.DEFAULT_LEASE_MILLIS);
+
+        // A file that failed is only released
+        assertTrue(first.tryClaim(KEY));
+        first.release(KEY);
+        assertFalse(first.isComplete(KEY));
+        assertFalse(first.isHeld(KEY));
+        assertTrue(second.tryClaim(KEY));
+    }
+
+
+    //Helper methods
+    private SharedFolderQueue open(String nodeId, long leaseMillis) throws IOException {
+        return new SharedFolderQueue(folder.toFile(), BATCH, nodeId, leaseMillis);
+    }
+}
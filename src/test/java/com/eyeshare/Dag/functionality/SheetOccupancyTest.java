@@ -0,0 +1,159 @@
+package com.eyeshare.Dag.functionality;
+
+import junit.framework.TestCase;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.FillPatternType;
+import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Checks the occupancy index of a sheet with formatted blank rows, whitespace text and gaps, built from the workbook and
+ * while the sheet is read into columns
+ */
+public class SheetOccupancyTest extends TestCase {
+    // Data ends at row 10, the next data follows after exactly 10 empty rows
+    private static final int GAP_START = 11;
+    private static final int STRAY_ROW = 21;
+    private static final int LAST_ROW = 25;
+
+    private XSSFWorkbook workbook;
+    private Sheet sheet;
+
+    @Override
+    protected void setUp() {
+        workbook = new XSSFWorkbook();
+        sheet = workbook.createSheet("Data");
+        CellStyle filled = workbook.createCellStyle();
+        filled.setFillForegroundColor(IndexedColors.YELLOW.getIndex());
+        filled.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+
+        Row header = sheet.createRow(0);
+        header.createCell(0).setCellValue("Id");
+        header.createCell(1).setCellValue("Name");
+        header.createCell(2).setCellValue("Note");
+        for (int i = 1; i <= 5; i++) {
+            Row row = sheet.createRow(i);
+            row.createCell(0).setCellValue(i);
+            row.createCell(1).setCellValue("name " + i);
+            if (i <= 2) {
+                row.createCell(2).setCellValue("note " + i);
+            }
+        }
+        // Rows 6 to 8 are empty: formatted blank cells, whitespace text and no row at all
+        Row formatted = sheet.createRow(6);
+        formatted.createCell(0).setCellStyle(filled);
+        formatted.createCell(1).setCellStyle(filled);
+        sheet.createRow(7).createCell(1).setCellValue("  \t ");
+        for (int i = 9; i <= 10; i++) {
+            sheet.createRow(i).createCell(0).setCellValue(i);
+        }
+        sheet.createRow(GAP_START).createCell(0).setCellStyle(filled);
+        // Past a gap of 10 empty rows, in a column of its own
+        sheet.createRow(STRAY_ROW).createCell(4).setCellValue("stray");
+        // Trailing formatted rows
+        for (int i = STRAY_ROW + 1; i <= LAST_ROW; i++) {
+            sheet.createRow(i).createCell(0).setCellStyle(filled);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        workbook.close();
+    }
+
+    public void testIsBlank() {
+        Row row = sheet.createRow(40);
+        assertTrue(SheetOccupancy.isBlank(null));
+        assertTrue(SheetOccupancy.isBlank(row.createCell(0)));
+        assertTrue(SheetOccupancy.isBlank(sheet.getRow(6).getCell(0)));
+        assertTrue(SheetOccupancy.isBlank(sheet.getRow(7).getCell(1)));
+        Cell empty = row.createCell(1);
+        empty.setCellValue("");
+        assertTrue(SheetOccupancy.isBlank(empty));
+
+        Cell zero = row.createCell(2);
+        zero.setCellValue(0);
+        assertFalse(SheetOccupancy.isBlank(zero));
+        Cell bool = row.createCell(3);
+        bool.setCellValue(false);
+        assertFalse(SheetOccupancy.isBlank(bool));
+        Cell text = row.createCell(4);
+        text.setCellValue(" x ");
+        assertFalse(SheetOccupancy.isBlank(text));
+    }
+
+    public void testBuiltFromSheet() {
+        assertOccupancy(SheetOccupancy.build(sheet));
+    }
+
+    public void testBuiltWhileReadingColumns() throws IOException {
+        Path file = Files.createTempFile("sheet-occupancy", ".xlsx");
+        try {
+            try (OutputStream out = Files.newOutputStream(file)) {
+                workbook.write(out);
+            }
+            try (StreamingSourceReader reader = new StreamingSourceReader(file.toString())) {
+                assertOccupancy(ColumnarSheet.read(reader, 0).getOccupancy());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    public void testEmptySheet() {
+        SheetOccupancy occupancy = SheetOccupancy.build(workbook.createSheet("Empty"));
+        assertEquals(-1, occupancy.getLastNonBlankRow());
+        assertEquals(-1, occupancy.getLastNonBlankRow(0));
+        assertTrue(occupancy.isRowEmpty(0));
+        assertEquals(0, occupancy.getEndOfData(0, 10));
+        assertEquals(5, occupancy.getEndOfData(5, 10));
+    }
+
+
+    //Helper methods
+    private static void assertOccupancy(SheetOccupancy occupancy) {
+        assertEquals(STRAY_ROW, occupancy.getLastNonBlankRow());
+        assertEquals(10, occupancy.getLastNonBlankRow(0));
+        assertEquals(5, occupancy.getLastNonBlankRow(1));
+        assertEquals(2, occupancy.getLastNonBlankRow(2));
+        assertEquals(-1, occupancy.getLastNonBlankRow(3));
+        assertEquals(STRAY_ROW, occupancy.getLastNonBlankRow(4));
+        assertEquals(-1, occupancy.getLastNonBlankRow(99));
+        assertEquals(5, occupancy.getLastNonBlankRow(new int[] {1, 2}));
+        assertEquals(10, occupancy.getLastNonBlankRow(new int[] {2, 0, 1}));
+        assertEquals(-1, occupancy.getLastNonBlankRow(new int[] {3, 99}));
+        assertEquals(-1, occupancy.getLastNonBlankRow(new int[0]));
+
+        assertFalse(occupancy.isRowEmpty(0));
+        assertFalse(occupancy.isRowEmpty(5));
+        assertTrue(occupancy.isRowEmpty(6));
+        assertTrue(occupancy.isRowEmpty(7));
+        assertTrue(occupancy.isRowEmpty(8));
+        assertFalse(occupancy.isRowEmpty(9));
+        assertTrue(occupancy.isRowEmpty(GAP_START));
+        assertFalse(occupancy.isRowEmpty(STRAY_ROW));
+        assertTrue(occupancy.isRowEmpty(LAST_ROW));
+        assertTrue(occupancy.isRowEmpty(1000));
+
+        // A run of maxEmptyRows empty rows ends the data, a shorter one does not
+        assertEquals(GAP_START, occupancy.getEndOfData(1, 10));
+        assertEquals(6, occupancy.getEndOfData(1, 3));
+        assertEquals(GAP_START, occupancy.getEndOfData(1, 4));
+        // Empty rows that run up to the last row end the data, also when they are formatted
+        assertEquals(STRAY_ROW + 1, occupancy.getEndOfData(1, 11));
+        assertEquals(STRAY_ROW + 1, occupancy.getEndOfData(STRAY_ROW, 10));
+        assertEquals(GAP_START, occupancy.getEndOfData(GAP_START, 10));
+        assertEquals(LAST_ROW, occupancy.getEndOfData(LAST_ROW, 10));
+        // Starting past the last row there is no data
+        assertEquals(LAST_ROW + 5, occupancy.getEndOfData(LAST_ROW + 5, 10));
+    }
+}
@@ -0,0 +1,102 @@
+package com.eyeshare.Dag.functionality;
+
+import junit.framework.TestCase;
+
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Reads hand-edited sheet XML with the streaming reader and compares it with what the DOM reader sees
+ */
+public class StreamingSourceReaderTest extends TestCase {
+    private File file;
+
+    @Override
+    protected void setUp() throws IOException {
+        // A2:A4 share the formula of A2, like Excel writes a fill-down. C1 is a shared string cell without a value.
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        XSSFSheet sheet = workbook.createSheet("Data");
+        sheet.createRow(0).createCell(0).setCellValue("Head");
+        for (int r = 1; r <= 3; r++) {
+            XSSFRow row = sheet.createRow(r);
+            row.createCell(0).setCellFormula("B" + (r + 1) + "*2");
+            row.createCell(1).setCellValue(r + 1);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        workbook.write(bytes);
+        workbook.close();
+
+        file = File.createTempFile("shared-formulas", ".xlsx");
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+             ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(file.toPath()))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                byte[] content = in.readAllBytes();
+                if (entry.getName().equals("xl/worksheets/sheet1.xml")) {
+                    String xml = new String(content, StandardCharsets.UTF_8)
+                            .replace("<f>B2*2</f>", "<f t=\"shared\" ref=\"A2:A4\" si=\"0\">B2*2</f>")
+                            .replace("<f>B3*2</f>", "<f t=\"shared\" si=\"0\"/>")
+                            .replace("<f>B4*2</f>", "<f t=\"shared\" si=\"0\"/>")
+                            .replace("</c></row><row r=\"2\"", "</c><c r=\"C1\" t=\"s\"/></row><row r=\"2\"");
+                    assertTrue("the test sheet was not patched", xml.contains("<c r=\"C1\" t=\"s\"/>"));
+                    content = xml.getBytes(StandardCharsets.UTF_8);
+                }
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                out.write(content);
+                out.closeEntry();
+            }
+        }
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+
+    public void testSharedFormulasAreShiftedLikeTheDomReader() throws IOException {
+        List<String> streamed = new ArrayList<>();
+        try (StreamingSourceReader reader = new StreamingSourceReader(file.getPath())) {
+            reader.readSheet(0, row -> {
+                if (row.getRowNum() > 0) {
+                    streamed.add(row.getCellFormula(0));
+                }
+                return true;
+            });
+        }
+
+        List<String> loaded = new ArrayList<>();
+        try (InputStream in = Files.newInputStream(file.toPath()); XSSFWorkbook workbook = new XSSFWorkbook(in)) {
+            for (int r = 1; r <= 3; r++) {
+                loaded.add(workbook.getSheetAt(0).getRow(r).getCell(0).getCellFormula());
+            }
+        }
+        assertEquals(List.of("B2*2", "B3*2", "B4*2"), loaded);
+        assertEquals(loaded, streamed);
+    }
+
+    public void testSharedStringCellWithoutValueIsBlank() throws IOException {
+        List<CellType> types = new ArrayList<>();
+        try (StreamingSourceReader reader = new StreamingSourceReader(file.getPath())) {
+            reader.readSheet(0, row -> {
+                types.add(row.getCellType(2));
+                return false;
+            });
+        }
+        assertEquals(CellType.BLANK, types.get(0));
+    }
+}
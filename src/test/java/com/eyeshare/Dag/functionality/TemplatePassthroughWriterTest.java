@@ -0,0 +1,72 @@
+package com.eyeshare.Dag.functionality;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a workbook made from a template with one modified sheet and checks what was serialized and what passed through
+ */
+public class TemplatePassthroughWriterTest extends TestCase {
+    private byte[] templateBytes;
+
+    @Override
+    protected void setUp() throws IOException {
+        try (XSSFWorkbook template = new XSSFWorkbook()) {
+            template.createSheet("Output").createRow(0).createCell(0).setCellValue("Header");
+            template.createSheet("Lookup").createRow(0).createCell(0).setCellValue("Untouched");
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            template.write(bytes);
+            templateBytes = bytes.toByteArray();
+        }
+    }
+
+    public void testSheetWriteIsAvailable() {
+        // XSSFSheet.write(OutputStream) is not public API, a POI upgrade that drops it silently disables the passthrough
+        assertTrue("XSSFSheet.write(OutputStream) was not found", TemplatePassthroughWriter.isPassthroughAvailable());
+    }
+
+    public void testModifiedSheetIsWrittenAndOthersPassThrough() throws IOException {
+        byte[] written;
+        try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(templateBytes))) {
+            workbook.getSheetAt(0).createRow(1).createCell(0).setCellValue("Value");
+            BitSet modifiedSheets = new BitSet();
+            modifiedSheets.set(0);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            TemplatePassthroughWriter.write(workbook, templateBytes, modifiedSheets, Deflater.BEST_SPEED, out);
+            written = out.toByteArray();
+        }
+
+        try (XSSFWorkbook result = new XSSFWorkbook(new ByteArrayInputStream(written))) {
+            assertEquals("Header", result.getSheetAt(0).getRow(0).getCell(0).getStringCellValue());
+            assertEquals("Value", result.getSheetAt(0).getRow(1).getCell(0).getStringCellValue());
+            assertEquals("Untouched", result.getSheetAt(1).getRow(0).getCell(0).getStringCellValue());
+        }
+        assertTrue("the untouched sheet was compressed again",
+                Arrays.equals(rawEntry(templateBytes, "xl/worksheets/sheet2.xml"), rawEntry(written, "xl/worksheets/sheet2.xml")));
+        assertFalse(Arrays.equals(rawEntry(templateBytes, "xl/worksheets/sheet1.xml"), rawEntry(written, "xl/worksheets/sheet1.xml")));
+    }
+
+
+    //Helper methods
+    private static byte[] rawEntry(byte[] zipBytes, String name) throws IOException {
+        try (ZipFile zip = new ZipFile(new SeekableInMemoryByteChannel(zipBytes))) {
+            ZipArchiveEntry entry = zip.getEntry(name);
+            assertNotNull(name + " is missing", entry);
+            try (InputStream raw = zip.getRawInputStream(entry)) {
+                return raw.readAllBytes();
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.eyeshare.Dag.profiles;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks where the column copies of a profile end up in its execution plan
+ */
+public class CompiledProfileTest extends TestCase {
+
+    public void testCopiesBetweenTheSameSheetsAreFusedInProfileOrder() {
+        Profile profile = newProfile();
+        profile.addOperation(copyColumn(0, 4, 0, 1));
+        profile.addOperation(copyColumn(1, 0, 2, 0));
+        profile.addOperation(copyColumn(0, 2, 0, 0));
+        profile.addOperation(copyColumn(0, 7, 0, 1));
+
+        List<CompiledOperation> plan = CompiledProfile.compile(profile).getExecutionPlan();
+        assertEquals(2, plan.size());
+        // The fused copy takes the place of the first copy of its group
+        CompiledOperation.CopyColumns fused = (CompiledOperation.CopyColumns) plan.get(0);
+        assertTrue(Arrays.equals(new int[] {4, 2, 7}, fused.getSrcCols()));
+        assertTrue(Arrays.equals(new int[] {1, 0, 1}, fused.getDstCols()));
+        CompiledOperation.CopyColumn single = (CompiledOperation.CopyColumn) plan.get(1);
+        assertEquals(1, single.getSrcSheet());
+        assertEquals(2, single.getDstSheet());
+    }
+
+    public void testOtherOperationOnTheSheetEndsTheGroup() {
+        Profile profile = newProfile();
+        profile.addOperation(copyColumn(0, 0, 0, 0));
+        profile.addOperation(copyColumn(0, 1, 0, 1));
+        profile.addOperation(copySplitRow(0, 0, 1, 4, 5));
+        profile.addOperation(copyColumn(0, 2, 0, 2));
+
+        List<CompiledOperation> plan = CompiledProfile.compile(profile).getExecutionPlan();
+        assertEquals(3, plan.size());
+        assertTrue(Arrays.equals(new int[] {0, 1}, ((CompiledOperation.CopyColumns) plan.get(0)).getSrcCols()));
+        assertTrue(plan.get(1) instanceof CompiledOperation.CopySplitRow);
+        assertEquals(2, ((CompiledOperation.CopyColumn) plan.get(2)).getSrcCol());
+    }
+
+    public void testCopyIsNotMovedBeforeAnotherCopyIntoTheSameColumn() {
+        // The third copy overwrites what the second one wrote, fusing it into the first would run it before the second
+        Profile profile = newProfile();
+        profile.addOperation(copyColumn(0, 0, 0, 0));
+        profile.addOperation(copyColumn(1, 0, 0, 3));
+        profile.addOperation(copyColumn(0, 1, 0, 3));
+
+        List<CompiledOperation> plan = CompiledProfile.compile(profile).getExecutionPlan();
+        assertEquals(3, plan.size());
+        assertEquals(0, ((CompiledOperation.CopyColumn) plan.get(0)).getSrcCol());
+        assertEquals(1, plan.get(1).getSrcSheet());
+        assertEquals(1, ((CompiledOperation.CopyColumn) plan.get(2)).getSrcCol());
+    }
+
+    public void testOperationsKeepTheirProfileOrder() {
+        Profile profile = newProfile();
+        profile.addOperation(copyColumn(0, 0, 0, 0));
+        profile.addOperation(copyColumn(0, 1, 0, 1));
+
+        CompiledProfile compiled = CompiledProfile.compile(profile);
+        assertEquals(2, compiled.getOperations().size());
+        assertEquals(1, compiled.getExecutionPlan().size());
+        assertTrue(Arrays.equals(new int[] {0}, compiled.getSourceSheets()));
+    }
+
+
+    //Helper methods
+    private static Profile newProfile() {
+        Profile profile = new Profile("test");
+        profile.setTemplatePath("/templates/test.xlsx");
+        return profile;
+    }
+
+    private static Operation<Double> copyColumn(int srcSheet, int srcCol, int dstSheet, int dstCol) {
+        Map<String, Double> parameters = new HashMap<>();
+        parameters.put("srcSheet", (double) srcSheet);
+        parameters.put("srcCol", (double) srcCol);
+        parameters.put("dstSheet", (double) dstSheet);
+        parameters.put("dstCol", (double) dstCol);
+        return new Operation<>(OpType.COPY_COLUMN, parameters);
+    }
+
+    private static Operation<Object> copySplitRow(int srcSheet, int dstSheet, int startRow, int srcCol, int dstCol) {
+        Map<String, Double> colMap = new HashMap<>();
+        colMap.put(String.valueOf((double) srcCol), (double) dstCol);
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("srcSheet", (double) srcSheet);
+        parameters.put("dstSheet", (double) dstSheet);
+        parameters.put("startRow", (double) startRow);
+        parameters.put("colMap", colMap);
+        parameters.put("includeHeaders", false);
+        parameters.put("headerCol", 0.0);
+        return new Operation<>(OpType.COPY_SPLIT_ROW, parameters);
+    }
+
+}